@@ -0,0 +1,411 @@
+import java.util.*;
+
+// Microbenchmarks for the priority queues, neighbour generation and whole
+// searches, so data structure changes can be measured before and after.
+// Build and run from this directory with ./make, passing options through:
+//   ./make [heap|neighbours|search|all] [-wi n] [-i n] [-t ms]
+//          [-cells n,n,...] [-density d,d,...] [-heap n,n,...]
+//          [-engines A*,JPS,...]
+// or ./make macro ... for the scenario benchmarks in MacroBenchmarks.
+//
+// Each benchmark is run for -wi warmup iterations and then -i measured
+// iterations of -t milliseconds each (but always at least one operation).
+// Setup, e.g. filling a heap before timing extractMinimum, isn't timed.
+// The score is the mean time per operation, with the error being half the
+// width of its 99.9% confidence interval from Student's t distribution with
+// -i - 1 degrees of freedom, as JMH reports it
+class Benchmarks {
+
+	// Results are accumulated here so the JIT can't discard the work
+	static volatile long sink;
+
+	static int warmupIterations = 3;
+	static int iterations = 5;
+	static long iterationMillis = 1000;
+
+	// A benchmark: setup() is called before each batch() and not timed.
+	// batch() performs getOps() operations and returns a value for the sink
+	static abstract class Benchmark {
+		String name;
+		String params;
+
+		Benchmark(String name, String params) {
+			this.name = name;
+			this.params = params;
+		}
+
+		void setup() {
+		}
+
+		abstract long batch();
+
+		abstract int getOps();
+
+		// Extra information to print after the score, e.g. expansions
+		String getNote() {
+			return "";
+		}
+	}
+
+	public static void main(String[] args) {
+		if((args.length > 0) && args[0].equals("macro")) {
+			MacroBenchmarks.run(args); // Scenario files, see MacroBenchmarks
+			return;
+		}
+		String suite = "all";
+		int[] cells = {100, 10000, 1000000};
+		double[] densities = {0.0, 0.2, 0.35};
+		int[] heapSizes = {1000, 100000};
+		// Not CH, which takes minutes to build on big open grids
+		String[] engines = {"A*", "Dijkstra", "BFS", "JPS", "JPS+", "BiA*", "BiA*-parallel", "HPA*", "ALT"};
+
+		for(int i=0; i<args.length; i++) {
+			switch(args[i]) {
+				case "-wi":
+					warmupIterations = Integer.parseInt(args[++i]);
+					break;
+				case "-i":
+					iterations = Integer.parseInt(args[++i]);
+					break;
+				case "-t":
+					iterationMillis = Long.parseLong(args[++i]);
+					break;
+				case "-cells":
+					cells = parseInts(args[++i]);
+					break;
+				case "-density":
+					densities = parseDoubles(args[++i]);
+					break;
+				case "-heap":
+					heapSizes = parseInts(args[++i]);
+					break;
+				case "-engines":
+					engines = args[++i].split(",");
+					break;
+				default:
+					suite = args[i];
+			}
+		}
+
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		if(suite.equals("heap") || suite.equals("all")) {
+			for(int n : heapSizes) {
+				addHeapBenchmarks(benchmarks, n);
+			}
+		}
+		if(suite.equals("neighbours") || suite.equals("all")) {
+			for(int n : cells) {
+				for(double d : densities) {
+					benchmarks.add(neighboursBenchmark(n, d));
+				}
+			}
+		}
+		if(suite.equals("search") || suite.equals("all")) {
+			for(int n : cells) {
+				for(double d : densities) {
+					for(String engine : engines) {
+						benchmarks.add(searchBenchmark(engine, n, d));
+					}
+				}
+			}
+		}
+		if(benchmarks.size() == 0) {
+			System.err.println("Unknown suite: "+suite+" (expected heap, neighbours, search or all)");
+			System.exit(2);
+		}
+
+		System.out.println(String.format("%-36s %-24s %5s %14s %12s  %s", "Benchmark", "(params)", "Cnt", "Score", "Error", "Units"));
+		for(Benchmark b : benchmarks) {
+			measure(b);
+		}
+	}
+
+	// Run b and print its score in ns/op
+	static void measure(Benchmark b) {
+		for(int i=0; i<warmupIterations; i++) {
+			runIteration(b);
+		}
+		double[] scores = new double[iterations];
+		for(int i=0; i<iterations; i++) {
+			scores[i] = runIteration(b);
+		}
+		double mean = 0;
+		for(double s : scores) {
+			mean += s;
+		}
+		mean /= scores.length;
+		double variance = 0;
+		for(double s : scores) {
+			variance += (s - mean) * (s - mean);
+		}
+		variance = (scores.length > 1) ? (variance / (scores.length - 1)) : 0;
+		double error = studentT(scores.length - 1) * Math.sqrt(variance / scores.length);
+		System.out.println(String.format("%-36s %-24s %5d %14.3f %12.3f  ns/op  %s", b.name, b.params, scores.length, mean, error, b.getNote()));
+	}
+
+	// Two-sided 99.9% quantiles of Student's t distribution, for 1 to 30
+	// degrees of freedom
+	static final double[] T_QUANTILES = {
+		636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+		4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+		3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646
+	};
+
+	// Return the two-sided 99.9% quantile of Student's t distribution with df
+	// degrees of freedom, from the table above or, past its end, the
+	// Cornish-Fisher expansion around the normal quantile (good to 3 places)
+	static double studentT(int df) {
+		if(df < 1) {
+			return 0; // One iteration has no spread to report
+		}
+		if(df <= T_QUANTILES.length) {
+			return T_QUANTILES[df - 1];
+		}
+		double z = 3.2905;
+		double z3 = z * z * z;
+		double z5 = z3 * z * z;
+		double z7 = z5 * z * z;
+		return z + ((z3 + z) / (4.0 * df)) + ((5 * z5 + 16 * z3 + 3 * z) / (96.0 * df * df)) + ((3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384.0 * df * df * df));
+	}
+
+	// Return mean ns per operation over one iteration of b
+	static double runIteration(Benchmark b) {
+		long deadline = System.nanoTime() + (iterationMillis * 1000000L);
+		long timed = 0;
+		long ops = 0;
+		long start;
+		do {
+			b.setup();
+			start = System.nanoTime();
+			sink += b.batch();
+			timed += System.nanoTime() - start;
+			ops += b.getOps();
+		} while(System.nanoTime() < deadline);
+		return ((double) timed) / ops;
+	}
+
+	/* HEAP BENCHMARKS */
+
+	// Distinct pseudo-random keys in [0, 2^30), the same for every run
+	static int[] makeKeys(int n) {
+		Random r = new Random(42);
+		int[] keys = new int[n];
+		for(int i=0; i<n; i++) {
+			keys[i] = r.nextInt(1 << 30);
+		}
+		return keys;
+	}
+
+	static DijkstraContents[] makeContents(int[] keys) {
+		DijkstraContents[] items = new DijkstraContents[keys.length];
+		for(int i=0; i<keys.length; i++) {
+			items[i] = new DijkstraContents(keys[i], null, i, 0);
+		}
+		return items;
+	}
+
+	// Make a new, empty heap of the type named
+	static KeyValueQueue newQueue(String type, int n) {
+		return type.equals("FibonacciHeap") ? new FibonacciHeap() : new DaryHeap(4, n);
+	}
+
+	static void addHeapBenchmarks(ArrayList<Benchmark> benchmarks, final int n) {
+		final int[] keys = makeKeys(n);
+		final String params = "heap="+Integer.toString(n);
+
+		for(final String type : new String[] {"FibonacciHeap", "DaryHeap"}) {
+			// add() into an initially empty heap
+			benchmarks.add(new Benchmark(type+".add", params) {
+				DijkstraContents[] items;
+				KeyValueQueue q;
+
+				void setup() {
+					items = makeContents(keys);
+					q = newQueue(type, n);
+				}
+
+				long batch() {
+					for(DijkstraContents d : items) {
+						q.add(d);
+					}
+					return q.isEmpty() ? 0 : 1;
+				}
+
+				int getOps() {
+					return n;
+				}
+			});
+
+			// decreaseKey() on every item of a full heap, after one
+			// extractMinimum() so a FibonacciHeap has trees to cut from
+			benchmarks.add(new Benchmark(type+".decreaseKey", params) {
+				DijkstraContents[] items;
+				KeyValueQueue q;
+
+				void setup() {
+					items = makeContents(keys);
+					q = newQueue(type, n);
+					for(DijkstraContents d : items) {
+						q.add(d);
+					}
+					q.extractMinimum().setKey(Integer.MIN_VALUE); // Mark as removed
+				}
+
+				long batch() {
+					long t = 0;
+					for(DijkstraContents d : items) {
+						if(d.getKey() != Integer.MIN_VALUE) {
+							q.decreaseKey(d, d.getKey() / 2);
+							t += d.getKey();
+						}
+					}
+					return t;
+				}
+
+				int getOps() {
+					return n - 1;
+				}
+			});
+
+			// extractMinimum() until a full heap is empty
+			benchmarks.add(new Benchmark(type+".extractMinimum", params) {
+				KeyValueQueue q;
+
+				void setup() {
+					q = newQueue(type, n);
+					for(DijkstraContents d : makeContents(keys)) {
+						q.add(d);
+					}
+				}
+
+				long batch() {
+					long t = 0;
+					while(!q.isEmpty()) {
+						t += q.extractMinimum().getKey();
+					}
+					return t;
+				}
+
+				int getOps() {
+					return n;
+				}
+			});
+		}
+
+		// The int heap used by the searches, for comparison
+		benchmarks.add(new Benchmark("IntHeap.add+extractMinimum", params) {
+			IntHeap q = new IntHeap(n);
+
+			void setup() {
+				q.clear();
+			}
+
+			long batch() {
+				for(int i=0; i<n; i++) {
+					q.add(i, keys[i]);
+				}
+				long t = 0;
+				while(!q.isEmpty()) {
+					t += q.extractMinimum();
+				}
+				return t;
+			}
+
+			int getOps() {
+				return n;
+			}
+		});
+	}
+
+	/* GRID BENCHMARKS */
+
+	// Make a square-ish grid of about n cells, each an OBSTACLE with
+	// probability density, with START top-left and END bottom-right
+	static Grid makeGrid(int n, double density) {
+		int x = Math.max(2, (int) Math.round(Math.sqrt(n)));
+		int y = Math.max(2, n / x);
+		Grid g = new Grid(x, y);
+		Random r = new Random(7);
+		for(int i=0; i<y; i++) {
+			for(int j=0; j<x; j++) {
+				if(r.nextDouble() < density) {
+					g.setCellValue(j, i, 1);
+				}
+			}
+		}
+		g.setCellValue(0, 0, 2);
+		g.setCellValue(x - 1, y - 1, 3);
+		return g;
+	}
+
+	static String gridParams(int n, double density) {
+		return "cells="+Integer.toString(n)+" density="+Double.toString(density);
+	}
+
+	// Algorithms.generateNeighbours() for every cell of the grid
+	static Benchmark neighboursBenchmark(final int n, final double density) {
+		final GridSnapshot s = makeGrid(n, density).snapshot();
+		return new Benchmark("Algorithms.generateNeighbours", gridParams(n, density)) {
+			int[] neighbours = new int[4];
+
+			long batch() {
+				byte[] cells = s.getCells();
+				int stride = s.getStride();
+				long t = 0;
+				for(int i=0; i<s.getHeight(); i++) {
+					int row = s.index(0, i);
+					for(int c=row; c<(row + s.getWidth()); c++) {
+						t += Algorithms.generateNeighbours(neighbours, c, cells, stride);
+					}
+				}
+				return t;
+			}
+
+			int getOps() {
+				return s.getWidth() * s.getHeight();
+			}
+		};
+	}
+
+	// A search from corner to corner with the named engine. JPS+ makes its
+	// JumpTable, HPA* its ClusterHierarchy, ALT its LandmarkTable and CH its
+	// ContractionHierarchy in its first search, so warm-up should cover that
+	static Benchmark searchBenchmark(final String engineName, final int n, final double density) {
+		final GridSnapshot s = makeGrid(n, density).snapshot();
+		final PathEngine engine = Algorithms.getEngine(engineName);
+		return new Benchmark(engineName+".findPath", gridParams(n, density)) {
+			PathResult last;
+
+			long batch() {
+				last = engine.findPath(s, s.getStart(), s.getEnd(), null, null);
+				return last.getLength();
+			}
+
+			int getOps() {
+				return 1;
+			}
+
+			String getNote() {
+				return "(length="+Integer.toString(last.getLength())+" expansions="+Integer.toString(last.getExpansions())+")";
+			}
+		};
+	}
+
+	static int[] parseInts(String s) {
+		String[] parts = s.split(",");
+		int[] a = new int[parts.length];
+		for(int i=0; i<parts.length; i++) {
+			a[i] = (int) Double.parseDouble(parts[i]); // Allow e.g. 1e7
+		}
+		return a;
+	}
+
+	static double[] parseDoubles(String s) {
+		String[] parts = s.split(",");
+		double[] a = new double[parts.length];
+		for(int i=0; i<parts.length; i++) {
+			a[i] = Double.parseDouble(parts[i]);
+		}
+		return a;
+	}
+}
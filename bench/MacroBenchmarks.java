@@ -0,0 +1,329 @@
+import java.util.*;
+
+// Runs MovingAI format .scen scenario files against the search engines,
+// checking each path length against the scenario's optimal length and
+// reporting throughput, p50/p99 latency and mean expansions per bucket.
+// Run from this directory as:
+//   ./make macro [scen files...] [-engines A*,Dijkstra,JPS,...] [-wi n] [-i n] [-nocheck]
+//   ./make macro -generate
+// With no files, every .scen file in maps/ is run. Each scenario is run -wi
+// times to warm up, then -i times measured. The exit status is 1 if any
+// length was wrong. The searches are 4-connected, so -nocheck is needed for
+// MovingAI's published scenarios, whose lengths allow diagonal moves.
+// -generate rewrites the sample maps and scenarios in maps/
+class MacroBenchmarks {
+
+	static final String MAP_DIR = "maps";
+
+	public static void run(String[] args) {
+		ArrayList<String> files = new ArrayList<String>();
+		String[] engines = {"A*", "Dijkstra"};
+		int warmupIterations = 1;
+		int iterations = 5;
+		boolean check = true;
+
+		for(int i=1; i<args.length; i++) {
+			switch(args[i]) {
+				case "-engines":
+					engines = args[++i].split(",");
+					break;
+				case "-wi":
+					warmupIterations = Integer.parseInt(args[++i]);
+					break;
+				case "-i":
+					iterations = Integer.parseInt(args[++i]);
+					break;
+				case "-nocheck":
+					check = false;
+					break;
+				case "-generate":
+					generateSamples();
+					return;
+				default:
+					files.add(args[i]);
+			}
+		}
+		if(files.size() == 0) {
+			java.io.File[] found = new java.io.File(MAP_DIR).listFiles();
+			if(found != null) {
+				for(java.io.File f : found) {
+					if(f.getName().endsWith(".scen")) {
+						files.add(f.getPath());
+					}
+				}
+			}
+			Collections.sort(files);
+		}
+		if(files.size() == 0) {
+			System.err.println("No .scen files given or found in "+MAP_DIR);
+			System.exit(2);
+		}
+
+		HashMap<String, GridSnapshot> maps = new HashMap<String, GridSnapshot>();
+		int mismatches = 0;
+		System.out.println(String.format("%-24s %-9s %6s %7s %5s %12s %10s %10s %11s", "Scenario", "Engine", "Bucket", "Queries", "Wrong", "Queries/s", "p50 us", "p99 us", "Expansions"));
+		for(String file : files) {
+			ArrayList<Scenario> scenarios;
+			GridSnapshot[] snapshots;
+			try {
+				scenarios = GridIO.loadScenarios(file);
+				snapshots = new GridSnapshot[scenarios.size()];
+				for(int i=0; i<scenarios.size(); i++) {
+					Scenario sc = scenarios.get(i);
+					if(!maps.containsKey(sc.map)) {
+						maps.put(sc.map, GridIO.loadMap(sc.map).snapshot());
+					}
+					snapshots[i] = maps.get(sc.map);
+				}
+			} catch(java.io.IOException e) {
+				System.err.println("Error reading input: "+e.getMessage());
+				System.exit(1);
+				return;
+			}
+			String name = new java.io.File(file).getName();
+
+			for(String engineName : engines) {
+				PathEngine engine = Algorithms.getEngine(engineName);
+				if(engine == null) {
+					System.err.println("Unknown engine: "+engineName);
+					System.exit(2);
+				}
+				mismatches += runScenarios(name, engine, scenarios, snapshots, warmupIterations, iterations, check);
+			}
+		}
+		if(mismatches > 0) {
+			System.err.println(Integer.toString(mismatches)+" paths didn't have the optimal length");
+			System.exit(1);
+		}
+	}
+
+	// Run every scenario with engine and print a line per bucket. Return the
+	// number of scenarios whose path length didn't match, if check
+	static int runScenarios(String name, PathEngine engine, ArrayList<Scenario> scenarios, GridSnapshot[] snapshots, int warmupIterations, int iterations, boolean check) {
+		int n = scenarios.size();
+		long[] nanos = new long[n * iterations];
+		int[] expansions = new int[n];
+		boolean[] wrong = new boolean[n];
+
+		for(int k=0; k<(warmupIterations + iterations); k++) {
+			for(int i=0; i<n; i++) {
+				Scenario sc = scenarios.get(i);
+				GridSnapshot s = snapshots[i];
+				long start = System.nanoTime();
+				PathResult r = engine.findPath(s, s.index(sc.startX, sc.startY), s.index(sc.goalX, sc.goalY), null, null);
+				long t = System.nanoTime() - start;
+				if(k >= warmupIterations) {
+					nanos[((k - warmupIterations) * n) + i] = t;
+				}
+				expansions[i] = r.getExpansions();
+				wrong[i] = check && (Math.abs(r.getLength() - sc.optimalLength) > 1e-6);
+			}
+		}
+
+		// Scenarios are grouped by bucket, in any order
+		TreeMap<Integer, ArrayList<Integer>> buckets = new TreeMap<Integer, ArrayList<Integer>>();
+		for(int i=0; i<n; i++) {
+			int b = scenarios.get(i).bucket;
+			if(!buckets.containsKey(b)) {
+				buckets.put(b, new ArrayList<Integer>());
+			}
+			buckets.get(b).add(i);
+		}
+		ArrayList<Integer> all = new ArrayList<Integer>();
+		for(int i=0; i<n; i++) {
+			all.add(i);
+		}
+
+		int totalWrong = 0;
+		for(Map.Entry<Integer, ArrayList<Integer>> e : buckets.entrySet()) {
+			totalWrong += printBucket(name, engine.getName(), Integer.toString(e.getKey()), e.getValue(), nanos, expansions, wrong, n, iterations);
+		}
+		printBucket(name, engine.getName(), "all", all, nanos, expansions, wrong, n, iterations);
+		return totalWrong;
+	}
+
+	// Print the results of the scenarios in members and return how many were wrong
+	static int printBucket(String name, String engineName, String bucket, ArrayList<Integer> members, long[] nanos, int[] expansions, boolean[] wrong, int n, int iterations) {
+		long[] times = new long[members.size() * iterations];
+		long totalTime = 0;
+		long totalExpansions = 0;
+		int wrongCount = 0;
+		int j = 0;
+		for(int i : members) {
+			for(int k=0; k<iterations; k++) {
+				times[j] = nanos[(k * n) + i];
+				totalTime += times[j++];
+			}
+			totalExpansions += expansions[i];
+			wrongCount += wrong[i] ? 1 : 0;
+		}
+		Arrays.sort(times);
+		System.out.println(String.format("%-24s %-9s %6s %7d %5d %12.1f %10.2f %10.2f %11.1f", name, engineName, bucket, members.size(), wrongCount, times.length / (totalTime / 1e9), percentile(times, 0.5) / 1e3, percentile(times, 0.99) / 1e3, ((double) totalExpansions) / members.size()));
+		return wrongCount;
+	}
+
+	// Nearest-rank percentile p of sorted
+	static long percentile(long[] sorted, double p) {
+		int i = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+	}
+
+	/* SAMPLE GENERATION */
+
+	// Write the sample maps to MAP_DIR with a .scen file for each
+	static void generateSamples() {
+		try {
+			java.nio.file.Files.createDirectories(java.nio.file.Paths.get(MAP_DIR));
+			writeSample("random-128-20", randomMap(128, 128, 0.2, new Random(1)));
+			writeSample("rooms-128-16", roomsMap(128, 128, 16, new Random(2)));
+			writeSample("maze-64", mazeMap(64, 64, new Random(3)));
+		} catch(java.io.IOException e) {
+			System.err.println("Error writing samples: "+e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	// Cells of a map are true where passable
+	static boolean[][] randomMap(int x, int y, double density, Random r) {
+		boolean[][] m = new boolean[y][x];
+		for(int i=0; i<y; i++) {
+			for(int j=0; j<x; j++) {
+				m[i][j] = r.nextDouble() >= density;
+			}
+		}
+		return m;
+	}
+
+	// Square rooms of the given size, with a door in each wall
+	static boolean[][] roomsMap(int x, int y, int size, Random r) {
+		boolean[][] m = new boolean[y][x];
+		for(int i=0; i<y; i++) {
+			for(int j=0; j<x; j++) {
+				m[i][j] = ((i % size) != 0) && ((j % size) != 0);
+			}
+		}
+		for(int i=0; i<y; i+=size) {
+			for(int j=0; j<x; j+=size) {
+				// Doors in the top and left walls of the room at (j, i)
+				if(i > 0) {
+					m[i][j + 1 + r.nextInt(size - 1)] = true;
+				}
+				if(j > 0) {
+					m[i + 1 + r.nextInt(size - 1)][j] = true;
+				}
+			}
+		}
+		return m;
+	}
+
+	// A perfect maze with corridors one cell wide, made by a randomised
+	// depth-first search over the cells with both coordinates odd
+	static boolean[][] mazeMap(int x, int y, Random r) {
+		boolean[][] m = new boolean[y][x];
+		int[] dx = {0, 2, 0, -2};
+		int[] dy = {-2, 0, 2, 0};
+		ArrayDeque<int[]> stack = new ArrayDeque<int[]>();
+		m[1][1] = true;
+		stack.push(new int[] {1, 1});
+		while(!stack.isEmpty()) {
+			int[] c = stack.peek();
+			int[] order = {0, 1, 2, 3};
+			for(int i=3; i>0; i--) {
+				int k = r.nextInt(i + 1);
+				int t = order[i];
+				order[i] = order[k];
+				order[k] = t;
+			}
+			boolean moved = false;
+			for(int d : order) {
+				int nx = c[0] + dx[d];
+				int ny = c[1] + dy[d];
+				if((nx > 0) && (nx < x - 1) && (ny > 0) && (ny < y - 1) && !m[ny][nx]) {
+					m[c[1] + (dy[d] / 2)][c[0] + (dx[d] / 2)] = true;
+					m[ny][nx] = true;
+					stack.push(new int[] {nx, ny});
+					moved = true;
+					break;
+				}
+			}
+			if(!moved) {
+				stack.pop();
+			}
+		}
+		return m;
+	}
+
+	// Write name.map and name.map.scen, with up to 10 scenarios per bucket
+	// of 4 length units as the MovingAI sets have. Lengths are found by a
+	// breadth-first search, independent of the engines being checked
+	static void writeSample(String name, boolean[][] m) throws java.io.IOException {
+		int y = m.length;
+		int x = m[0].length;
+		StringBuilder map = new StringBuilder();
+		map.append("type octile\nheight "+Integer.toString(y)+"\nwidth "+Integer.toString(x)+"\nmap\n");
+		for(int i=0; i<y; i++) {
+			for(int j=0; j<x; j++) {
+				map.append(m[i][j] ? '.' : '@');
+			}
+			map.append('\n');
+		}
+		java.nio.file.Files.write(java.nio.file.Paths.get(MAP_DIR, name+".map"), map.toString().getBytes());
+
+		Random r = new Random(name.hashCode());
+		TreeMap<Integer, ArrayList<String>> buckets = new TreeMap<Integer, ArrayList<String>>();
+		int[] dist = new int[x * y];
+		for(int tries=0; tries<2000; tries++) {
+			int sx = r.nextInt(x);
+			int sy = r.nextInt(y);
+			if(!m[sy][sx]) {
+				continue;
+			}
+			distances(m, sx, sy, dist);
+			int gx = r.nextInt(x);
+			int gy = r.nextInt(y);
+			int d = dist[(gy * x) + gx];
+			if(d < 0) {
+				continue; // Not reachable, or an obstacle
+			}
+			int bucket = d / 4;
+			if(!buckets.containsKey(bucket)) {
+				buckets.put(bucket, new ArrayList<String>());
+			}
+			if(buckets.get(bucket).size() < 10) {
+				buckets.get(bucket).add(Integer.toString(bucket)+"\t"+name+".map\t"+Integer.toString(x)+"\t"+Integer.toString(y)+"\t"+Integer.toString(sx)+"\t"+Integer.toString(sy)+"\t"+Integer.toString(gx)+"\t"+Integer.toString(gy)+"\t"+String.format(Locale.ROOT, "%.8f", (double) d));
+			}
+		}
+		StringBuilder scen = new StringBuilder("version 1\n");
+		for(ArrayList<String> lines : buckets.values()) {
+			for(String line : lines) {
+				scen.append(line).append('\n');
+			}
+		}
+		java.nio.file.Files.write(java.nio.file.Paths.get(MAP_DIR, name+".map.scen"), scen.toString().getBytes());
+	}
+
+	// Fill dist with the 4-connected distance of each cell from (sx, sy),
+	// or -1 where unreachable
+	static void distances(boolean[][] m, int sx, int sy, int[] dist) {
+		int x = m[0].length;
+		int y = m.length;
+		Arrays.fill(dist, -1);
+		int[] queue = new int[x * y];
+		int head = 0;
+		int tail = 0;
+		dist[(sy * x) + sx] = 0;
+		queue[tail++] = (sy * x) + sx;
+		while(head < tail) {
+			int c = queue[head++];
+			int cx = c % x;
+			int cy = c / x;
+			int[] next = {(cx > 0) ? (c - 1) : -1, (cx < x - 1) ? (c + 1) : -1, (cy > 0) ? (c - x) : -1, (cy < y - 1) ? (c + x) : -1};
+			for(int nb : next) {
+				if((nb >= 0) && (dist[nb] < 0) && m[nb / x][nb % x]) {
+					dist[nb] = dist[c] + 1;
+					queue[tail++] = nb;
+				}
+			}
+		}
+	}
+}
@@ -13,13 +13,24 @@ interface Content {
 	public void processInput();
 }
 
-// Hold items in queue/heap structures e.g. FibonacciHeap
+// Hold items in queue/heap structures e.g. FibonacciHeap, DaryHeap
 // Implemented by: DijkstraContents
 interface KeyValue {
 	public int getKey();
 	public void setKey(int k);
 	public Node getNode();
 	public void setNode(Node n);
+	public int getIndex(); // Position in an array-backed heap, -1 if not in one
+	public void setIndex(int i);
+}
+
+// Min-priority queue of KeyValues, as used by Dijkstra's Algorithm
+// Implemented by: FibonacciHeap, DaryHeap
+interface KeyValueQueue {
+	public void add(KeyValue v);
+	public KeyValue extractMinimum();
+	public void decreaseKey(KeyValue v, int k);
+	public boolean isEmpty();
 }
 
 // Link Front-end and logical classes
@@ -29,6 +40,12 @@ interface Handler {
 	public void updateDisplay();
 }
 
+// Told by a Grid whenever a cell becomes, or stops being, an OBSTACLE
+// Implemented by: ClusterHierarchy
+interface ObstacleListener {
+	public void obstacleChanged(int x, int y);
+}
+
 // Miscellaneous helper methods, ALL STATIC
 class Utilities {
 	// Halt execution for ms milliseconds
@@ -143,6 +160,15 @@ class Utilities {
 		return timeString(minutesUsed, secondsUsed, millisecondsUsed);
 	}
 
+	// Return readable string representation of time specified in ns, to the
+	// microsecond, since searches often take less than 1ms
+	public static String displayNanos(long nanos) {
+		if(nanos >= 1000000000L) {
+			return displayTime(nanos / 1000000);
+		}
+		return String.format("%.3fms", nanos / 1e6);
+	}
+
 	// Return readable string representation of time specified in m/s/ms
 	public static String timeString(long m, long s, long ms) {
 		if(m > 0) {
@@ -236,6 +262,11 @@ class CustomFrame extends JFrame {
 		return panelID;
 	}
 
+	// Add a component which draws itself, e.g. a GridCanvas, to contentPanel
+	public void addComponent(JComponent comp, int x, int y, int gridwidth, int gridheight) {
+		contentPanel.addComponent(comp, x, y, gridwidth, gridheight);
+	}
+
 	// Add a button to sub-panel with id=id
 	public void addButton(int id, String s) {
 		getPanel(id).addButton(s);
@@ -356,6 +387,17 @@ class CustomPanel extends JPanel {
 		panels.add(newPanel);
 	}
 
+	// Add a component which isn't a CustomPanel. x,y are relative positions not pixels
+	public void addComponent(JComponent comp, int x, int y, int gridwidth, int gridheight) {
+		constraints.gridx = x;
+		constraints.gridy = y;
+		constraints.gridwidth = gridwidth;
+		constraints.gridheight = gridheight;
+		add(comp, constraints);
+		constraints.gridwidth = 1;
+		constraints.gridheight = 1;
+	}
+
 	public ArrayList<CustomPanel> getPanels() {
 		return panels;
 	}
@@ -421,22 +463,33 @@ class MenuButton implements Content {
 	}
 }
 
-// A square/vertex within a Grid
+// A square/vertex within a Grid. Only a view onto the Grid's storage, so Cells
+// can be created on demand (e.g. one per panel) without copying any state
 class Cell implements Content {
-	private int value;
-	private Grid parent; // Allow parent to handle input
+	private int x;
+	private int y;
+	private Grid parent; // Holds the value, and handles input
 
-	public Cell(int v, Grid g) {
-		value = v;
+	public Cell(int x, int y, Grid g) {
+		this.x = x;
+		this.y = y;
 		parent = g;
 	}
 
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
 	public int getValue() {
-		return value;
+		return parent.getCellValue(x, y);
 	}
 
 	public void setValue(int v) {
-		value = v;
+		parent.setCellValue(x, y, v);
 	}
 
 	public void processInput() {
@@ -456,31 +509,53 @@ class Cell implements Content {
 // Holds a collection of cells and some meta-information
 // A special case of a graph, where horizontally/vertically adjacent Cells are
 // connected vertices
+//
+// Cell values are stored in one flat byte array, a row at a time, surrounded
+// by a border of OBSTACLEs one cell wide. A cell's index in the array is its
+// packed coordinate (see index()), and its neighbours are at index +-1 and
+// +-getStride(). Thanks to the border every cell of the grid has all four
+// neighbours in the array, so searches can read it without bounds checks
+//
+// Searches don't read the Grid itself but an immutable GridSnapshot, which
+// shares the array until the Grid is next changed. The change then copies
+// the array first (copy-on-write), so the Grid can be edited while searches
+// run. All changes go through synchronized methods
 class Grid implements Iterable<Cell> {
-	private Cell[][] cells;
+	private byte[] cells;
 	private int width; // Number of columns
 	private int height; // Number of rows
+	private int stride; // Distance in cells between vertically adjacent cells, width + 2
+	private GridSnapshot snapshot; // Latest snapshot, null if cells have changed since
+	private int startIndex; // Index of START cell, -1 if unknown
+	private int endIndex; // Index of END cell, -1 if unknown
 	private Handler caller; // The class e.g. Demo which creates the grid. This object is responsible for handling the input appropriately.
 	private boolean lock; // True when grid is invalid for running pathfind, e.g. start and end points not defined.
 	private int valueToMove; // Used to move start/end point
 	private boolean finalised; // True during algorithm execution
+	private ObstacleListener obstacleListener; // Told of OBSTACLEs added or removed, may be null
+
+	// Cells changed since the last takeChanges(), so a GridCanvas can repaint
+	// just those. Past DIRTY_LIMIT changes only the rectangle around them is kept
+	public static final int DIRTY_LIMIT = 4096;
+	private int[] dirty; // Indices of changed cells, may repeat
+	private int dirtyCount;
+	private boolean overflowed; // Too many changes to list
+	private Rectangle dirtyBounds; // In cells, empty if nothing changed
 
 	// Make x*y grid of cells with value 0
 	public Grid(int x, int y) {
-		width = x;
-		height = y;
-		cells = new Cell[width][height];
-		init(0);
-		caller = null; // Won't be able to handle input
-		lock = false;
-		valueToMove = 0;
-		finalised = false;
+		this(x, y, null); // Won't be able to handle input
 	}
 
 	public Grid(int x, int y, Handler h) {
 		width = x;
 		height = y;
-		cells = new Cell[width][height];
+		stride = width + 2;
+		cells = new byte[stride * (height + 2)];
+		Arrays.fill(cells, (byte) 1); // Border
+		snapshot = null;
+		dirty = new int[DIRTY_LIMIT];
+		dirtyBounds = new Rectangle();
 		init(0);
 		caller = h;
 		lock = false;
@@ -496,6 +571,104 @@ class Grid implements Iterable<Cell> {
 		return height;
 	}
 
+	public int getStride() {
+		return stride;
+	}
+
+	// Index of (x, y) in the storage array, see class comment
+	public int index(int x, int y) {
+		return ((y + 1) * stride) + x + 1;
+	}
+
+	// Column of the cell at index i of the storage array
+	public int indexToX(int i) {
+		return (i % stride) - 1;
+	}
+
+	// Row of the cell at index i of the storage array
+	public int indexToY(int i) {
+		return (i / stride) - 1;
+	}
+
+	// Return index of (first instance of) v in the storage array, or -1
+	public synchronized int find(int v) {
+		for(int i=0; i<height; i++) {
+			int row = index(0, i);
+			for(int j=row; j<(row + width); j++) {
+				if(cells[j] == v) {
+					return j;
+				}
+			}
+		}
+		return -1;
+	}
+
+	// Return an immutable view of the current cells. O(1) unless the START or
+	// END cell has been removed since the last snapshot
+	public synchronized GridSnapshot snapshot() {
+		if(snapshot == null) {
+			startIndex = (startIndex == -1) ? find(2) : startIndex;
+			endIndex = (endIndex == -1) ? find(3) : endIndex;
+			snapshot = new GridSnapshot(cells, width, height, startIndex, endIndex);
+		}
+		return snapshot;
+	}
+
+	// Call before changing cells: stop sharing the array with the latest snapshot
+	private void beforeWrite() {
+		if(snapshot != null) {
+			cells = cells.clone();
+			snapshot = null;
+		}
+	}
+
+	// Record that the cell at index i has changed
+	private void markDirty(int i) {
+		if(!overflowed) {
+			if(dirtyCount == DIRTY_LIMIT) {
+				overflowed = true;
+				dirtyCount = 0;
+			} else {
+				dirty[dirtyCount++] = i;
+			}
+		}
+		int x = indexToX(i);
+		int y = indexToY(i);
+		if(dirtyBounds.isEmpty()) {
+			dirtyBounds.setBounds(x, y, 1, 1);
+		} else {
+			dirtyBounds.add(x, y);
+			dirtyBounds.add(x + 1, y + 1);
+		}
+	}
+
+	private void markAllDirty() {
+		overflowed = true;
+		dirtyCount = 0;
+		dirtyBounds.setBounds(0, 0, width, height);
+	}
+
+	// Return the smallest rectangle of cells holding every change since the
+	// last takeChanges(), or null if there are none
+	public synchronized Rectangle getDirtyBounds() {
+		return dirtyBounds.isEmpty() ? null : new Rectangle(dirtyBounds);
+	}
+
+	// Return the changes since the last call, and forget them. Puts the
+	// indices of the cells changed into changed (which needs DIRTY_LIMIT
+	// places) and the rectangle around them into bounds. Returns how many
+	// there are, or -1 if there were too many to list, in which case anything
+	// in bounds may have changed. Only meant for one caller, a GridCanvas
+	public synchronized int takeChanges(int[] changed, Rectangle bounds) {
+		bounds.setBounds(dirtyBounds);
+		int n = overflowed ? -1 : dirtyCount;
+		System.arraycopy(dirty, 0, changed, 0, dirtyCount);
+		overflowed = false;
+		dirtyCount = 0;
+		dirtyBounds.setBounds(0, 0, 0, 0);
+		return n;
+	}
+
 	public void toggleLock() {
 		lock = !lock;
 	}
@@ -537,7 +710,7 @@ class Grid implements Iterable<Cell> {
 
 			@Override
 			public Cell next() {
-				Cell c = cells[x++][y];
+				Cell c = new Cell(x++, y, Grid.this);
 				y = (x == width) ? (y+1) : y; // At end of row, go to next row
 				x = (x == width) ?	 0 	 : x; // ...and go to start of row
 				return c;
@@ -551,29 +724,68 @@ class Grid implements Iterable<Cell> {
 		return iter;
 	}
 
-	// Create 2D array of new Cells with value v
-	public void init(int v) {
-		for(int j=0; j<width; j++) {
+	// Set every cell to value v
+	public synchronized void init(int v) {
+		beforeWrite();
+		if(obstacleListener != null) {
 			for(int i=0; i<height; i++) {
-				cells[j][i] = new Cell(v, this);
+				for(int j=0; j<width; j++) {
+					if((cells[index(j, i)] == 1) != (v == 1)) {
+						obstacleListener.obstacleChanged(j, i);
+					}
+				}
 			}
 		}
+		for(int i=0; i<height; i++) {
+			Arrays.fill(cells, index(0, i), index(width, i), (byte) v);
+		}
+		startIndex = -1;
+		endIndex = -1;
+		markAllDirty();
 	}
 
-	public int sumValues() {
+	public synchronized int sumValues() {
 		int t = 0;
-		for(Cell c : this) {
-			t += c.getValue();
+		for(int i=0; i<height; i++) {
+			for(int j=0; j<width; j++) {
+				t += cells[index(j, i)];
+			}
 		}
 		return t;
 	}
 
-	public int getCellValue(int x, int y) {
-		return cells[x][y].getValue();
+	public synchronized int getCellValue(int x, int y) {
+		return cells[index(x, y)];
 	}
 
-	public void setCellValue(int x, int y, int v) {
-		cells[x][y].setValue(v);
+	// Copy the values of the cells in r (which must lie inside the grid)
+	// into out a row at a time, so (x, y) is at out[((y - r.y) * r.width) + x - r.x]
+	public synchronized void getValues(Rectangle r, byte[] out) {
+		for(int i=0; i<r.height; i++) {
+			System.arraycopy(cells, index(r.x, r.y + i), out, i * r.width, r.width);
+		}
+	}
+
+	public synchronized void setCellValue(int x, int y, int v) {
+		beforeWrite();
+		int i = index(x, y);
+		boolean wasObstacle = (cells[i] == 1);
+		cells[i] = (byte) v;
+		markDirty(i);
+		if((obstacleListener != null) && (wasObstacle != (v == 1))) {
+			obstacleListener.obstacleChanged(x, y);
+		}
+		// Keep track of START (2, or 6 when highlighted) and END (3 or 7)
+		if((v == 2) || (v == 6)) {
+			startIndex = i;
+		} else if(startIndex == i) {
+			startIndex = -1;
+		}
+		if((v == 3) || (v == 7)) {
+			endIndex = i;
+		} else if(endIndex == i) {
+			endIndex = -1;
+		}
 	}
 
 	// Although they call setCellValue the following methods only change
@@ -581,32 +793,32 @@ class Grid implements Iterable<Cell> {
 	// highlight the operation of the algorithms to the user.
 
 	// Graphically "select" cell at (x,y) by translating [0-3] -> [4-7]
-	public void markSelected(int x, int y) {
+	public synchronized void markSelected(int x, int y) {
 		setCellValue(x, y, getCellValue(x, y) + 4);
 	}
 
 	// Graphically "unselect" cell at (x,y) by translating [4-7] -> [0-3]
-	public void markUnselected(int x, int y) {
+	public synchronized void markUnselected(int x, int y) {
 		assert(getCellValue(x, y) >= 4); // Only applies to highlighted cells
 		setCellValue(x, y, getCellValue(x, y) - 4);
 	}
 
 	// Graphically mark EMPTY cell at (x,y) as contained in Open Set, 0 -> 8
-	public void markOpen(int x, int y) {
+	public synchronized void markOpen(int x, int y) {
 		if(getCellValue(x, y) == 0) {
 			setCellValue(x, y, 8);
 		}
 	}
 
 	// Graphically mark Open cell at (x,y) as EMPTY, 8 -> 0
-	public void markUnopen(int x, int y) {
+	public synchronized void markUnopen(int x, int y) {
 		if(getCellValue(x, y) == 8) {
 			setCellValue(x, y, 0);
 		}
 	}
 
 	// Graphically mark EMPTY cell at (x,y) as already visited, 0 -> 9
-	public void markVisited(int x, int y) {
+	public synchronized void markVisited(int x, int y) {
 		// Don't apply to START/END squares
 		if(getCellValue(x, y) == 0) {
 			setCellValue(x, y, 9);
@@ -614,7 +826,7 @@ class Grid implements Iterable<Cell> {
 	}
 
 	// Graphically mark EMPTY cell as part of solution, [0/4/8/9] -> 10
-	public void markSolution(int x, int y) {
+	public synchronized void markSolution(int x, int y) {
 		int val = getCellValue(x, y);
 		if((val == 0) || (val == 4) || (val == 8) || (val == 9)) {
 			setCellValue(x, y, 10);
@@ -622,29 +834,43 @@ class Grid implements Iterable<Cell> {
 	}
 
 	// Graphically remove all markings to put value in range [0-3]
-	public void removeMarkings() {
+	public synchronized void removeMarkings() {
+		beforeWrite();
 		int v;
-		for(Cell c : this) {
-			v = c.getValue();
-			if(v > 7) {
-				// Openset, visited cells and solution -> EMPTY
-				c.setValue(0);
-			} else {
-				c.setValue(v % 4); // Remove highlights
+		for(int i=0; i<height; i++) {
+			for(int j=index(0, i); j<index(width, i); j++) {
+				v = cells[j];
+				if(v > 7) {
+					// Openset, visited cells and solution -> EMPTY
+					cells[j] = 0;
+				} else {
+					cells[j] = (byte) (v % 4); // Remove highlights
+				}
 			}
 		}
+		markAllDirty();
 	}
 
 	public Cell getCellAt(int x, int y) {
-		return cells[x][y];
+		return new Cell(x, y, this);
+	}
+
+	public void setHandler(Handler h) {
+		caller = h;
+	}
+
+	// Tell o (with the grid locked) whenever a cell becomes or stops being an
+	// OBSTACLE, until replaced. o may be null
+	public synchronized void setObstacleListener(ObstacleListener o) {
+		obstacleListener = o;
 	}
 
 	// Return 2D matrix of values of each cell
-	public int[][] asMatrix() {
+	public synchronized int[][] asMatrix() {
 		int[][] matrix = new int[width][height];
 		for(int j=0; j<width; j++) {
 			for(int i=0; i<height; i++) {
-				matrix[j][i] = cells[j][i].getValue();
+				matrix[j][i] = getCellValue(j, i);
 			}
 		}
 		return matrix;
@@ -656,13 +882,471 @@ class Grid implements Iterable<Cell> {
 	}
 }
 
+// Immutable copy of the cells of a Grid at one moment, see Grid.snapshot().
+// Uses the same layout and indices as the Grid
+class GridSnapshot {
+	private byte[] cells; // Never modified: the Grid copies it before changing it
+	private int width;
+	private int height;
+	private int stride;
+	private int start; // Index of START cell, -1 if none
+	private int end; // Index of END cell, -1 if none
+
+	public GridSnapshot(byte[] cells, int width, int height, int start, int end) {
+		this.cells = cells;
+		this.width = width;
+		this.height = height;
+		this.stride = width + 2;
+		this.start = start;
+		this.end = end;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	// Cell values with a border of OBSTACLEs, see Grid. Must not be modified
+	public byte[] getCells() {
+		return cells;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public int index(int x, int y) {
+		return ((y + 1) * stride) + x + 1;
+	}
+
+	public int indexToX(int i) {
+		return (i % stride) - 1;
+	}
+
+	public int indexToY(int i) {
+		return (i / stride) - 1;
+	}
+
+	public int getCellValue(int x, int y) {
+		return cells[index(x, y)];
+	}
+}
+
+// Draws a Grid on one component, instead of a panel and button per cell,
+// through a viewport which is zoomed with the mouse wheel and panned by
+// dragging with the right or middle button. Only the cells in view are drawn:
+//  - Zoomed in to a pixel or more per cell, they are copied into an image
+//    with one pixel per cell, which is scaled up to the screen
+//  - Zoomed out further, each pixel shows a block of cells. Blocks come from
+//    a pyramid of levels, each summarising 2x2 blocks of the level below
+//    (see summarise()), so a frame costs about one read per pixel however
+//    big the grid is. The pyramid is built the first time it's needed
+// The cells changed since the last paint are taken from the Grid (see
+// Grid.takeChanges()) to update the pyramid, and only the region around
+// them is repainted, so a step of a search costs time for the few cells it
+// marks, not the whole grid. Left clicks are passed to the Cell under the
+// mouse, so input is handled just as if each cell had its own button
+class GridCanvas extends JPanel {
+	public static final double MAX_SCALE = 64; // Pixels per cell
+	public static final double ZOOM_STEP = 1.25; // Per notch of the mouse wheel
+
+	// Importance of each cell value when summarising a block, see summarise()
+	private static final int[] RANK = {0, 0, 6, 6, 5, 0, 6, 6, 4, 3, 7, 0, 0, 0, 0, 0};
+
+	private Grid grid;
+	private int gridWidth;
+	private int gridHeight;
+	private int width; // Preferred size in pixels
+	private int height;
+
+	private double scale; // Pixels per cell, 0 until first fitted
+	private double originX; // Cell coordinates of the top-left corner
+	private double originY;
+	private boolean viewMoved; // If not, the whole grid is kept in view
+	private int dragX; // Last mouse position while panning
+	private int dragY;
+
+	private byte[][] levels; // Block values of level l at [(y * levelWidths[l]) + x], null until built. levels[0] is unused, being the grid itself
+	private int[] levelWidths;
+	private int[] levelHeights;
+
+	private java.awt.image.BufferedImage image; // Scratch for painting
+	private int[] pixels; // Backing array of image
+	private byte[] values; // Scratch for cell values
+	private int[] palette; // RGB of each cell value, see Utilities.valueToColor()
+	private int[] changed; // Output of Grid.takeChanges()
+	private Rectangle changedBounds;
+
+	public GridCanvas(Grid g, int width, int height) {
+		grid = g;
+		gridWidth = g.getWidth();
+		gridHeight = g.getHeight();
+		this.width = width;
+		this.height = height;
+		scale = 0;
+		viewMoved = false;
+		levels = null;
+		changed = new int[Grid.DIRTY_LIMIT];
+		changedBounds = new Rectangle();
+		values = new byte[0];
+		palette = new int[128];
+		for(int i=0; i<palette.length; i++) {
+			palette[i] = Utilities.valueToColor(i).getRGB();
+		}
+		setDoubleBuffered(true);
+		setBackground(Color.WHITE);
+
+		MouseAdapter mouse = new MouseAdapter() {
+			public void mousePressed(MouseEvent e) {
+				if(SwingUtilities.isLeftMouseButton(e)) {
+					int x = cellAtX(e.getX());
+					int y = cellAtY(e.getY());
+					if((x >= 0) && (x < gridWidth) && (y >= 0) && (y < gridHeight)) {
+						grid.getCellAt(x, y).processInput();
+					}
+				} else {
+					dragX = e.getX();
+					dragY = e.getY();
+				}
+			}
+
+			public void mouseDragged(MouseEvent e) {
+				if(!SwingUtilities.isLeftMouseButton(e)) {
+					pan(e.getX() - dragX, e.getY() - dragY);
+					dragX = e.getX();
+					dragY = e.getY();
+				}
+			}
+
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				zoom(e.getX(), e.getY(), Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()));
+			}
+		};
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
+
+		addComponentListener(new ComponentAdapter() {
+			public void componentResized(ComponentEvent e) {
+				if(!viewMoved) {
+					fit();
+				}
+			}
+		});
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		return new Dimension(width, height);
+	}
+
+	// Show the whole grid, as large as fits
+	public void fit() {
+		double w = Math.max(1, getWidth());
+		double h = Math.max(1, getHeight());
+		scale = Math.min(w / gridWidth, h / gridHeight);
+		originX = (gridWidth - (w / scale)) / 2;
+		originY = (gridHeight - (h / scale)) / 2;
+		repaint();
+	}
+
+	// Zoom by factor, keeping the point (x, y) of this component still
+	public void zoom(int x, int y, double factor) {
+		if(scale == 0) {
+			return; // Not shown yet
+		}
+		double fitScale = Math.min(Math.max(1, getWidth()) / (double) gridWidth, Math.max(1, getHeight()) / (double) gridHeight);
+		double newScale = Math.max(Math.min(fitScale, 1) / 2, Math.min(MAX_SCALE, scale * factor));
+		originX += (x / scale) - (x / newScale);
+		originY += (y / scale) - (y / newScale);
+		scale = newScale;
+		viewMoved = true;
+		repaint();
+	}
+
+	// Move the view by (dx, dy) pixels
+	public void pan(int dx, int dy) {
+		if(scale == 0) {
+			return;
+		}
+		originX -= dx / scale;
+		originY -= dy / scale;
+		viewMoved = true;
+		repaint();
+	}
+
+	public double getScale() {
+		return scale;
+	}
+
+	// Column of the cell at pixel x of this component
+	public int cellAtX(int x) {
+		return (int) Math.floor(originX + (x / scale));
+	}
+
+	// Row of the cell at pixel y of this component
+	public int cellAtY(int y) {
+		return (int) Math.floor(originY + (y / scale));
+	}
+
+	// Pixels of this component covering the rectangle r of cells, including
+	// their outlines
+	private Rectangle cellsToPixels(Rectangle r) {
+		int left = (int) Math.floor((r.x - originX) * scale);
+		int top = (int) Math.floor((r.y - originY) * scale);
+		int right = (int) Math.ceil(((r.x + r.width) - originX) * scale);
+		int bottom = (int) Math.ceil(((r.y + r.height) - originY) * scale);
+		return new Rectangle(left, top, (right - left) + 1, (bottom - top) + 1);
+	}
+
+	// Repaint the cells changed since the last paint, if any. Can be called
+	// from any thread
+	public void refresh() {
+		Rectangle r = grid.getDirtyBounds();
+		if((r != null) && (scale > 0)) {
+			repaint(cellsToPixels(r));
+		}
+	}
+
+	// Make image and values hold at least w x h pixels and cells
+	private void ensureScratch(int w, int h) {
+		if((image == null) || (image.getWidth() < w) || (image.getHeight() < h)) {
+			int iw = Math.max(w, (image == null) ? 1 : image.getWidth());
+			int ih = Math.max(h, (image == null) ? 1 : image.getHeight());
+			image = new java.awt.image.BufferedImage(iw, ih, java.awt.image.BufferedImage.TYPE_INT_RGB);
+			pixels = ((java.awt.image.DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		}
+		if(values.length < w * h) {
+			values = new byte[w * h];
+		}
+	}
+
+	@Override
+	protected void paintComponent(Graphics gr) {
+		super.paintComponent(gr);
+		if(scale == 0) {
+			fit();
+		}
+		int n = grid.takeChanges(changed, changedBounds);
+		if(levels != null) {
+			updateLevels(n);
+		}
+
+		Rectangle clip = gr.getClipBounds();
+		if(clip == null) {
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		}
+		if(scale >= 1) {
+			paintCells(gr, clip);
+		} else {
+			paintBlocks(gr, clip);
+		}
+
+		// Cells changed since refresh() asked for this paint may lie outside
+		// the area being painted, so ask again for those
+		if(!changedBounds.isEmpty()) {
+			Rectangle r = cellsToPixels(changedBounds);
+			if(!clip.contains(r)) {
+				repaint(r);
+			}
+		}
+	}
+
+	// Paint the cells in clip one pixel per cell, scaled up
+	private void paintCells(Graphics gr, Rectangle clip) {
+		Rectangle r = new Rectangle(cellAtX(clip.x), cellAtY(clip.y), 0, 0);
+		r.add(cellAtX(clip.x + clip.width) + 1, cellAtY(clip.y + clip.height) + 1);
+		r = r.intersection(new Rectangle(0, 0, gridWidth, gridHeight));
+		if(r.isEmpty()) {
+			return;
+		}
+		ensureScratch(r.width, r.height);
+		grid.getValues(r, values);
+		int stride = image.getWidth();
+		for(int y=0; y<r.height; y++) {
+			for(int x=0; x<r.width; x++) {
+				pixels[(y * stride) + x] = palette[values[(y * r.width) + x]];
+			}
+		}
+		Rectangle p = cellsToPixels(r);
+		gr.drawImage(image, p.x, p.y, (p.x + p.width) - 1, (p.y + p.height) - 1, 0, 0, r.width, r.height, null);
+
+		// Outline cells, as the old per-cell panels did, if they're big enough to see
+		if(scale >= 4) {
+			gr.setColor(Color.WHITE);
+			for(int x=r.x; x<=(r.x + r.width); x++) {
+				int px = (int) Math.floor((x - originX) * scale);
+				gr.drawLine(px, p.y, px, (p.y + p.height) - 1);
+			}
+			for(int y=r.y; y<=(r.y + r.height); y++) {
+				int py = (int) Math.floor((y - originY) * scale);
+				gr.drawLine(p.x, py, (p.x + p.width) - 1, py);
+			}
+		}
+	}
+
+	// Paint the pixels in clip, each showing the block of the pyramid level
+	// whose blocks are at least as big as a pixel
+	private void paintBlocks(Graphics gr, Rectangle clip) {
+		if(levels == null) {
+			buildLevels();
+		}
+		int l = Math.max(1, Math.min(levels.length - 1, (int) Math.ceil(Math.log(1 / scale) / Math.log(2))));
+		byte[] level = levels[l];
+		int lw = levelWidths[l];
+		ensureScratch(clip.width, clip.height);
+		int stride = image.getWidth();
+
+		// Block column of each pixel column, -1 if off the grid
+		int[] columns = new int[clip.width];
+		for(int x=0; x<clip.width; x++) {
+			int cx = (int) Math.floor(originX + ((clip.x + x + 0.5) / scale));
+			columns[x] = ((cx < 0) || (cx >= gridWidth)) ? -1 : (cx >> l);
+		}
+		int background = getBackground().getRGB();
+		for(int y=0; y<clip.height; y++) {
+			int cy = (int) Math.floor(originY + ((clip.y + y + 0.5) / scale));
+			int row = (y * stride);
+			if((cy < 0) || (cy >= gridHeight)) {
+				Arrays.fill(pixels, row, row + clip.width, background);
+				continue;
+			}
+			int block = (cy >> l) * lw;
+			for(int x=0; x<clip.width; x++) {
+				pixels[row + x] = (columns[x] == -1) ? background : palette[level[block + columns[x]]];
+			}
+		}
+		gr.drawImage(image, clip.x, clip.y, clip.x + clip.width, clip.y + clip.height, 0, 0, clip.width, clip.height, null);
+	}
+
+	// Summarise up to four values (-1 where there's none) as one: the most
+	// important marking (by RANK) if there is one, so that searches and
+	// paths stay visible, otherwise OBSTACLE if at least half are OBSTACLEs
+	private static byte summarise(int a, int b, int c, int d) {
+		int best = -1;
+		int present = 0;
+		int obstacles = 0;
+		int v;
+		for(int k=0; k<4; k++) {
+			v = (k == 0) ? a : ((k == 1) ? b : ((k == 2) ? c : d));
+			if(v < 0) {
+				continue;
+			}
+			present++;
+			if((v == 1) || (v == 5)) {
+				obstacles++;
+			} else if((RANK[v] > 0) && ((best == -1) || (RANK[v] > RANK[best]))) {
+				best = v;
+			}
+		}
+		if(best != -1) {
+			return (byte) best;
+		}
+		return (byte) ((2 * obstacles >= present) ? 1 : 0);
+	}
+
+	// Value of block (x, y) of level l, or -1 if outside it. Level 0 is read
+	// from the grid, so call while holding its lock
+	private int blockValue(int l, int x, int y) {
+		if((x >= levelWidths[l]) || (y >= levelHeights[l])) {
+			return -1;
+		}
+		return (l == 0) ? grid.getCellValue(x, y) : levels[l][(y * levelWidths[l]) + x];
+	}
+
+	private void buildLevels() {
+		int count = 2;
+		while((1 << (count - 1)) < Math.max(gridWidth, gridHeight)) {
+			count++;
+		}
+		levels = new byte[count][];
+		levelWidths = new int[count];
+		levelHeights = new int[count];
+		levelWidths[0] = gridWidth;
+		levelHeights[0] = gridHeight;
+		for(int l=1; l<count; l++) {
+			levelWidths[l] = (levelWidths[l - 1] + 1) / 2;
+			levelHeights[l] = (levelHeights[l - 1] + 1) / 2;
+			levels[l] = new byte[levelWidths[l] * levelHeights[l]];
+		}
+		rebuildLevels(new Rectangle(0, 0, gridWidth, gridHeight));
+	}
+
+	// Bring the pyramid up to date with the n changes taken from the grid
+	private void updateLevels(int n) {
+		if(n == -1) {
+			rebuildLevels(changedBounds);
+			return;
+		}
+		synchronized(grid) {
+			for(int k=0; k<n; k++) {
+				int x = grid.indexToX(changed[k]);
+				int y = grid.indexToY(changed[k]);
+				for(int l=1; l<levels.length; l++) {
+					x >>= 1;
+					y >>= 1;
+					levels[l][(y * levelWidths[l]) + x] = summarise(blockValue(l - 1, 2 * x, 2 * y), blockValue(l - 1, (2 * x) + 1, 2 * y), blockValue(l - 1, 2 * x, (2 * y) + 1), blockValue(l - 1, (2 * x) + 1, (2 * y) + 1));
+				}
+			}
+		}
+	}
+
+	// Recompute every block of the pyramid covering the rectangle r of cells
+	private void rebuildLevels(Rectangle r) {
+		int x0 = r.x;
+		int y0 = r.y;
+		int x1 = r.x + r.width; // Exclusive
+		int y1 = r.y + r.height;
+		for(int l=1; l<levels.length; l++) {
+			x0 >>= 1;
+			y0 >>= 1;
+			x1 = (x1 + 1) >> 1;
+			y1 = (y1 + 1) >> 1;
+			int lw = levelWidths[l];
+			for(int y=y0; y<y1; y++) {
+				if(l == 1) {
+					// Read the two rows of cells under this row of blocks at once
+					Rectangle rows = new Rectangle(2 * x0, 2 * y, 0, 0);
+					rows.add(Math.min(2 * x1, gridWidth), Math.min((2 * y) + 2, gridHeight));
+					ensureScratch(rows.width, rows.height);
+					grid.getValues(rows, values);
+					for(int x=x0; x<x1; x++) {
+						int i = 2 * (x - x0);
+						boolean right = (i + 1 < rows.width);
+						boolean below = (rows.height == 2);
+						levels[1][(y * lw) + x] = summarise(values[i], right ? values[i + 1] : -1, below ? values[rows.width + i] : -1, (right && below) ? values[rows.width + i + 1] : -1);
+					}
+				} else {
+					for(int x=x0; x<x1; x++) {
+						levels[l][(y * lw) + x] = summarise(blockValue(l - 1, 2 * x, 2 * y), blockValue(l - 1, (2 * x) + 1, 2 * y), blockValue(l - 1, 2 * x, (2 * y) + 1), blockValue(l - 1, (2 * x) + 1, (2 * y) + 1));
+					}
+				}
+			}
+		}
+	}
+}
+
 // Creates and holds a window which displays a Grid, possibly with menu buttons
 class GridGUI {
 	Grid grid;
 	int x;
 	int y;
 	CustomFrame frame;
+	GridCanvas canvas;
 	int delayMilliseconds;
+	int columns; // Of menu buttons, at least 1
+	java.io.ByteArrayOutputStream lastTrace; // Of the last search shown, see render()
 
 	// Delay dictates step time when running an algorithm
 	public GridGUI(Grid g, int delay) {
@@ -677,50 +1361,53 @@ class GridGUI {
 	}
 
 	public void createGUI(int cellWidth, int cellHeight, String title) {
+		createGUI(cellWidth, cellHeight, title, new MenuButton[0]);
+	}
 
-		int width = x * cellWidth;
-		int height = y * cellHeight;
-
-		frame = new CustomFrame(width, height, title, true);
+	public void createGUI(int cellWidth, int cellHeight, String title, MenuButton[] buttons) {
+		createGUI(new Dimension(x * cellWidth, y * cellHeight), title, buttons);
+	}
 
-		Cell c;
-		int id;
-		// Iterate over Cells in Grid, adding a panel and button for each
-		for(int j=0; j<y; j++) {
-			for(int i=0; i<x; i++) {
-				c = grid.getCellAt(i, j);
-				id = frame.addPanel(i, j, cellWidth, cellHeight, c);
-				frame.addButton(id, Integer.toString(id));
-			}
-		}
+	// Show the grid as big as fits in 80% of the screen's height
+	public void createGUI(String title, MenuButton[] buttons) {
+		Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+		int windowDimension = (int) ((float) screenSize.getHeight() * 0.8);
 
-		frame.display();
+		int longestDimension = (x > y) ? x : y;
+		// + 1 to leave space for menu buttons on bottom row
+		double cellSize = windowDimension / (double) (longestDimension + 1);
 
+		if(cellSize >= 1) {
+			createGUI((int) cellSize, (int) cellSize, title, buttons);
+		} else {
+			// Too many cells to show each one, see GridCanvas
+			createGUI(new Dimension((int) (cellSize * x), (int) (cellSize * y)), title, buttons);
+		}
 	}
 
-	public void createGUI(int cellWidth, int cellHeight, String title, MenuButton[] buttons) {
+	// Show the grid in size pixels, however many cells it has. It can be
+	// zoomed and panned, see GridCanvas
+	public void createGUI(Dimension size, String title, MenuButton[] buttons) {
 
-		int width = x * cellWidth;
-		int height = y * cellHeight;
+		int width = size.width;
+		int height = size.height;
+		// Menu buttons go on a row of their own, as big as a cell but big enough to click
+		int buttonWidth = Math.max(width / x, 60);
+		int buttonHeight = Math.max(height / y, 30);
 		if(buttons.length > 0) {
-			height += cellHeight;
+			height += buttonHeight;
 		}
 		frame = new CustomFrame(width, height, title, true);
+		columns = Math.max(1, buttons.length);
 
-		Cell c;
-		int id;
-		for(int j=0; j<y; j++) {
-			for(int i=0; i<x; i++) {
-				c = grid.getCellAt(i, j);
-				id = frame.addPanel(i, j, cellWidth, cellHeight, c);
-				frame.addButton(id, Integer.toString(id));
-			}
-		}
+		canvas = new GridCanvas(grid, size.width, size.height);
+		frame.addComponent(canvas, 0, 0, columns, 1);
 
 		// Iterate over MenuButtons, adding a panel and button for each
+		int id;
 		int k = 0;
 		for(MenuButton b : buttons) {
-			id = frame.addPanel(k, y, cellWidth, cellHeight, b);
+			id = frame.addPanel(k, 1, buttonWidth, buttonHeight, b);
 			frame.addButton(id, b.getTitle());
 			k++;
 		}
@@ -729,28 +1416,749 @@ class GridGUI {
 
 	}
 
-	public void instantUpdate() {
-		frame.display();
+	public int getDelay() {
+		return delayMilliseconds;
 	}
 
-	public void updateDisplay() {
+	// Add c on a row of its own below the menu buttons
+	public void addControl(JComponent c) {
+		frame.addComponent(c, 0, 2, columns, 1);
 		frame.display();
-		Utilities.sleep(delayMilliseconds);
+	}
 
+	// Show the steps published by p as they arrive, see GridRenderer, and
+	// record them as the last trace. s is the snapshot being searched
+	public GridRenderer render(StepPublisher p, GridSnapshot s) {
+		lastTrace = new java.io.ByteArrayOutputStream();
+		TraceWriter trace = null;
+		try {
+			trace = new TraceWriter(lastTrace, s, s.getStart(), s.getEnd());
+		} catch(java.io.IOException e) {
+			lastTrace = null; // Can't happen writing to memory
+		}
+		GridRenderer r = new GridRenderer(grid, canvas, new GridMarker(grid), trace);
+		p.subscribe(r);
+		return r;
 	}
-}
 
-// Create main menu, from which user can create a grid
-class Demo implements Handler {
+	// Show the steps published by p, carrying on from those already marked
+	// by marker, see TracePlayer
+	public GridRenderer render(StepPublisher p, GridMarker marker) {
+		GridRenderer r = new GridRenderer(grid, canvas, marker, null);
+		p.subscribe(r);
+		return r;
+	}
 
-	Grid g;
-	GridGUI gui;
+	// Return the trace of the last search shown (see TraceWriter), or null
+	// if there hasn't been one. Only complete once it has been shown
+	public byte[] getLastTrace() {
+		return (lastTrace == null) ? null : lastTrace.toByteArray();
+	}
 
-	// Create a menu, launch main window on start button press
-	public void runMenu() {
-		Color pastelBlue = Utilities.makeColor(175.0, 218.0, 240.0);
+	// Only the grid changes after createGUI(), and only the cells changed
+	// since the last update are repainted, see GridCanvas
+	public void instantUpdate() {
+		canvas.refresh();
+	}
 
-		CustomFrame frame = new CustomFrame(500, 350, "Choose grid size", false);
+	public void updateDisplay() {
+		canvas.refresh();
+		Utilities.sleep(delayMilliseconds);
+
+	}
+}
+
+// Shows the steps of a search from a StepPublisher on a Grid and its
+// GridCanvas. Chunks of steps are queued as they arrive, and a timer on the
+// event dispatch thread applies them to the Grid FRAME_RATE times a second,
+// then repaints once for all of them. So however fast the search runs, the
+// display only does one frame's work per frame, and Swing is only touched
+// from its own thread. If the steps arrive faster than they can be applied,
+// a frame stops after FRAME_BUDGET and fewer chunks are requested, which in
+// turn holds up the search (see StepPublisher). The steps can also be
+// recorded as they arrive, see TraceWriter
+class GridRenderer implements Flow.Subscriber<int[]> {
+	public static final int FRAME_RATE = 60;
+	public static final long FRAME_BUDGET = 10000000L; // ns of stepping per frame
+
+	private Grid grid;
+	private GridCanvas canvas;
+	private GridMarker marker;
+	private ConcurrentLinkedQueue<int[]> chunks; // Received but not yet applied
+	private Flow.Subscription subscription;
+	private volatile boolean complete; // No more chunks will arrive
+	private javax.swing.Timer timer;
+	private CountDownLatch finished;
+	private TraceWriter trace; // null if not recording
+
+	public GridRenderer(Grid g, GridCanvas canvas) {
+		this(g, canvas, new GridMarker(g), null);
+	}
+
+	// Mark the steps with marker and record them to trace, if not null
+	public GridRenderer(Grid g, GridCanvas canvas, GridMarker marker, TraceWriter trace) {
+		grid = g;
+		this.canvas = canvas;
+		this.marker = marker;
+		this.trace = trace;
+		chunks = new ConcurrentLinkedQueue<int[]>();
+		complete = false;
+		finished = new CountDownLatch(1);
+		timer = new javax.swing.Timer(1000 / FRAME_RATE, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				frame();
+			}
+		});
+	}
+
+	public void onSubscribe(Flow.Subscription s) {
+		subscription = s;
+		s.request(StepPublisher.BUFFER);
+		timer.start();
+	}
+
+	public void onNext(int[] chunk) {
+		if(trace != null) {
+			try {
+				trace.write(chunk);
+			} catch(java.io.IOException e) {
+				System.err.println("Trace not recorded: "+e.getMessage());
+				trace = null;
+			}
+		}
+		chunks.add(chunk);
+	}
+
+	public void onError(Throwable t) {
+		endTrace();
+		complete = true;
+	}
+
+	public void onComplete() {
+		endTrace();
+		complete = true;
+	}
+
+	private void endTrace() {
+		if(trace != null) {
+			try {
+				trace.finish();
+			} catch(java.io.IOException e) {
+				System.err.println("Trace not recorded: "+e.getMessage());
+			}
+			trace = null;
+		}
+	}
+
+	// Apply the chunks received since the last frame, within the budget,
+	// and repaint. Runs on the event dispatch thread
+	private void frame() {
+		boolean done = complete; // Read first so no chunk can be missed
+		long deadline = System.nanoTime() + FRAME_BUDGET;
+		int applied = 0;
+		int[] chunk;
+		while((System.nanoTime() < deadline) && ((chunk = chunks.poll()) != null)) {
+			// One lock for the chunk instead of one per step
+			synchronized(grid) {
+				for(int step : chunk) {
+					StepPublisher.send(step, marker);
+				}
+			}
+			applied++;
+		}
+		if(applied > 0) {
+			subscription.request(applied);
+			canvas.refresh();
+		}
+		if(done && chunks.isEmpty()) {
+			timer.stop();
+			finished.countDown();
+		}
+	}
+
+	// Wait until every step published has been shown
+	public void awaitFinish() {
+		try {
+			finished.await();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
+
+// Writes the steps of a search (see StepPublisher) compactly, so that it can
+// be shown again without running it, see TraceReader and TracePlayer:
+//  - MAGIC and VERSION
+//  - The grid's width and height, the start and end cells, then its cells
+//    row by row as the lengths of runs of alternately passable and OBSTACLE
+//    cells, starting with passable (so the first run may be empty)
+//  - One number per step: the kind of step in the bottom 2 bits, and above
+//    them the column and row differences between its cell and a base cell,
+//    zigzag encoded so that small differences either way are small
+//    numbers, with their bits interleaved. The base is the last SELECT's
+//    cell for OPENs and SELECTs, and the last SOLUTION's for SOLUTIONs, or
+//    the start cell if there hasn't been one
+//  - 0 to end
+// Numbers are unsigned varints: 7 bits per byte, lowest first, with the top
+// bit set on every byte but the last. Cells are indices in a GridSnapshot.
+// OPENs are neighbours of the cell being expanded, and SOLUTIONs of the
+// last one, so they take 1 byte, as do SELECTs of cells close to the last
+// one, however big the grid is
+class TraceWriter {
+	public static final int MAGIC = 0x50465452; // "PFTR"
+	public static final int VERSION = 1;
+
+	private java.io.OutputStream out;
+	private byte[] buffer; // Written to out when full, so out needn't be buffered
+	private int count; // Bytes in buffer
+	private int stride; // Of the grid, see GridSnapshot
+	private int selected; // Cell of the last SELECT
+	private int solution; // Cell of the last SOLUTION
+
+	// Write the header for a search of s from start to end
+	public TraceWriter(java.io.OutputStream out, GridSnapshot s, int start, int end) throws java.io.IOException {
+		this.out = out;
+		buffer = new byte[65536];
+		count = 0;
+		stride = s.getStride();
+		selected = start;
+		solution = start;
+		for(int shift=24; shift>=0; shift-=8) {
+			buffer[count++] = (byte) (MAGIC >>> shift);
+		}
+		buffer[count++] = (byte) VERSION;
+		writeNumber(s.getWidth());
+		writeNumber(s.getHeight());
+		writeNumber(start);
+		writeNumber(end);
+		byte[] cells = s.getCells();
+		boolean obstacle = false; // Kind of the current run
+		long run = 0;
+		for(int y=0; y<s.getHeight(); y++) {
+			for(int i=s.index(0, y); i<s.index(s.getWidth(), y); i++) {
+				if((cells[i] == 1) != obstacle) {
+					writeNumber(run);
+					obstacle = !obstacle;
+					run = 0;
+				}
+				run++;
+			}
+		}
+		writeNumber(run);
+	}
+
+	private void writeNumber(long v) throws java.io.IOException {
+		if(count > buffer.length - 10) {
+			flush();
+		}
+		while((v & ~0x7FL) != 0) {
+			buffer[count++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buffer[count++] = (byte) v;
+	}
+
+	private void flush() throws java.io.IOException {
+		out.write(buffer, 0, count);
+		count = 0;
+	}
+
+	// Return the bits of v (at most 31) spaced out to every other bit
+	static long spread(int v) {
+		long x = v & 0xFFFFFFFFL;
+		x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+		x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+		x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return x;
+	}
+
+	// Inverse of spread(): return every other bit of x, from the lowest
+	static int unspread(long x) {
+		x &= 0x5555555555555555L;
+		x = (x | (x >>> 1)) & 0x3333333333333333L;
+		x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+		x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+		x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+		return (int) x;
+	}
+
+	// Write one step, as encoded by StepPublisher
+	public void write(int step) throws java.io.IOException {
+		int kind = StepPublisher.kind(step);
+		int c = StepPublisher.cell(step);
+		int base = (kind == StepPublisher.SOLUTION) ? solution : selected;
+		int dx = (c % stride) - (base % stride);
+		int dy = (c / stride) - (base / stride);
+		writeNumber(((spread((dx << 1) ^ (dx >> 31)) | (spread((dy << 1) ^ (dy >> 31)) << 1)) << 2) | kind);
+		if(kind == StepPublisher.SELECT) {
+			selected = c;
+		} else if(kind == StepPublisher.SOLUTION) {
+			solution = c;
+		}
+	}
+
+	public void write(int[] steps) throws java.io.IOException {
+		for(int step : steps) {
+			write(step);
+		}
+	}
+
+	// End the trace and close out
+	public void finish() throws java.io.IOException {
+		writeNumber(0);
+		flush();
+		out.close();
+	}
+}
+
+// Records the steps of a headless search to a TraceWriter, e.g. for
+// BatchRunner. Errors writing are thrown as UncheckedIOExceptions, ending
+// the search
+class TraceRecorder implements SearchListener {
+	private TraceWriter trace;
+
+	public TraceRecorder(TraceWriter trace) {
+		this.trace = trace;
+	}
+
+	private void write(int kind, int c) {
+		try {
+			trace.write(StepPublisher.encode(kind, c));
+		} catch(java.io.IOException e) {
+			throw new java.io.UncheckedIOException(e);
+		}
+	}
+
+	public void onStart() {
+	}
+
+	public void onOpen(int c) {
+		write(StepPublisher.OPEN, c);
+	}
+
+	public void onSelect(int c) {
+		write(StepPublisher.SELECT, c);
+	}
+
+	public void onSolution(int c) {
+		write(StepPublisher.SOLUTION, c);
+	}
+
+	public void onFinish(PathResult r) {
+		try {
+			trace.finish();
+		} catch(java.io.IOException e) {
+			throw new java.io.UncheckedIOException(e);
+		}
+	}
+}
+
+// Reads a trace written by TraceWriter: the header when constructed, then
+// the steps, encoded as by StepPublisher. Throws IOException if the trace
+// is truncated or corrupt
+class TraceReader {
+	private java.io.InputStream in;
+	private int width;
+	private int height;
+	private int start;
+	private int end;
+	private long[] runs; // Alternately passable and OBSTACLE, see TraceWriter
+	private int stride; // Of the grid, see GridSnapshot
+	private int selected; // Cell of the last SELECT
+	private int solution; // Cell of the last SOLUTION
+	private int limit; // Cells are less than this
+	private boolean finished; // End of the steps read
+
+	public TraceReader(java.io.InputStream in) throws java.io.IOException {
+		this.in = new java.io.BufferedInputStream(in, 65536);
+		int magic = 0;
+		for(int k=0; k<4; k++) {
+			magic = (magic << 8) | readByte();
+		}
+		if(magic != TraceWriter.MAGIC) {
+			throw new java.io.IOException("not a trace");
+		}
+		int version = readByte();
+		if(version != TraceWriter.VERSION) {
+			throw new java.io.IOException("unsupported trace version "+Integer.toString(version));
+		}
+		width = readInt();
+		height = readInt();
+		if((width == 0) || (height == 0) || ((long) (width + 2) * (height + 2) > (1 << 29))) {
+			throw new java.io.IOException("bad grid size in trace");
+		}
+		stride = width + 2;
+		limit = stride * (height + 2);
+		start = readCell();
+		end = readCell();
+		ArrayList<Long> r = new ArrayList<Long>();
+		long total = 0;
+		while(total < (long) width * height) {
+			long run = readNumber();
+			total += run;
+			r.add(run);
+		}
+		if(total != (long) width * height) {
+			throw new java.io.IOException("corrupt grid in trace");
+		}
+		runs = new long[r.size()];
+		for(int k=0; k<runs.length; k++) {
+			runs[k] = r.get(k);
+		}
+		selected = start;
+		solution = start;
+		finished = false;
+	}
+
+	// Open the trace in filename
+	public static TraceReader open(String filename) throws java.io.IOException {
+		return new TraceReader(new java.io.FileInputStream(filename));
+	}
+
+	private int readByte() throws java.io.IOException {
+		int b = in.read();
+		if(b == -1) {
+			throw new java.io.IOException("trace truncated");
+		}
+		return b;
+	}
+
+	private long readNumber() throws java.io.IOException {
+		long v = 0;
+		int b;
+		int shift = 0;
+		do {
+			if(shift > 56) {
+				throw new java.io.IOException("corrupt number in trace");
+			}
+			b = readByte();
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while((b & 0x80) != 0);
+		return v;
+	}
+
+	private int readInt() throws java.io.IOException {
+		long v = readNumber();
+		if(v > Integer.MAX_VALUE) {
+			throw new java.io.IOException("corrupt number in trace");
+		}
+		return (int) v;
+	}
+
+	private int readCell() throws java.io.IOException {
+		int c = readInt();
+		if(c >= limit) {
+			throw new java.io.IOException("cell out of grid in trace");
+		}
+		return c;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	// Make the grid which was searched, with START and END but unmarked
+	public Grid makeGrid() {
+		Grid g = new Grid(width, height);
+		long i = 0;
+		for(int k=0; k<runs.length; k++) {
+			if(k % 2 == 1) {
+				for(long j=i; j<i+runs[k]; j++) {
+					g.setCellValue((int) (j % width), (int) (j / width), 1);
+				}
+			}
+			i += runs[k];
+		}
+		g.setCellValue(g.indexToX(start), g.indexToY(start), 2);
+		g.setCellValue(g.indexToX(end), g.indexToY(end), 3);
+		return g;
+	}
+
+	// Return the next step, or -1 after the last
+	public int next() throws java.io.IOException {
+		if(finished) {
+			return -1;
+		}
+		long v = readNumber();
+		if(v == 0) {
+			finished = true;
+			return -1;
+		}
+		int kind = (int) (v & 3);
+		if(kind == 0) {
+			throw new java.io.IOException("corrupt step in trace");
+		}
+		int zx = TraceWriter.unspread(v >>> 2);
+		int zy = TraceWriter.unspread(v >>> 3);
+		int base = (kind == StepPublisher.SOLUTION) ? solution : selected;
+		long x = (base % stride) + ((zx >>> 1) ^ -(zx & 1));
+		long y = (base / stride) + ((zy >>> 1) ^ -(zy & 1));
+		long c = (y * stride) + x;
+		if((x < 0) || (x >= stride) || (c < 0) || (c >= limit)) {
+			throw new java.io.IOException("cell out of grid in trace");
+		}
+		if(kind == StepPublisher.SELECT) {
+			selected = (int) c;
+		} else if(kind == StepPublisher.SOLUTION) {
+			solution = (int) c;
+		}
+		return StepPublisher.encode(kind, (int) c);
+	}
+
+	// Return the rest of the steps
+	public int[] readSteps() throws java.io.IOException {
+		int[] steps = new int[1024];
+		int n = 0;
+		int step;
+		while((step = next()) != -1) {
+			if(n == steps.length) {
+				steps = Arrays.copyOf(steps, 2 * n);
+			}
+			steps[n++] = step;
+		}
+		in.close();
+		return Arrays.copyOf(steps, n);
+	}
+}
+
+// Shows a recorded search (see TraceWriter) on a Grid in a GridGUI, without
+// running it again. Steps are streamed to a GridRenderer through a
+// StepPublisher, just like a live search, so they're shown with the GUI's
+// delay after each SELECT, or as fast as they can be drawn with none.
+// Seeking marks the grid as it was after a given step directly, starting
+// again from an unmarked grid to go backwards, so it costs about as much as
+// drawing the steps in between with no delay.
+// Either replay() the whole trace, or start() the player's thread and
+// play(), pause() or seek(), which just queue the command for the thread and
+// so can be called from the event dispatch thread. Also handles the Play and
+// Pause buttons of the window made by open()
+class TracePlayer implements Handler {
+	private static final int PLAY = -1; // Commands, or a step to seek to
+	private static final int PAUSE = -2;
+
+	private Grid grid;
+	private GridGUI gui;
+	private int[] steps; // Encoded as by StepPublisher
+	private GridMarker marker; // Shared by each stream, so a SELECT follows on
+	private volatile int position; // Number of steps shown or being shown
+	private boolean playing;
+	private StepPublisher publisher; // Steps being played, null if none
+	private GridRenderer renderer;
+	private LinkedBlockingQueue<Integer> commands;
+	private JSlider slider; // null if none
+	private boolean settingSlider; // To tell the player moving it from the user
+
+	public TracePlayer(Grid g, GridGUI gui, int[] steps) {
+		grid = g;
+		this.gui = gui;
+		this.steps = steps;
+		marker = new GridMarker(g);
+		position = 0;
+		playing = false;
+		publisher = null;
+		commands = new LinkedBlockingQueue<Integer>();
+	}
+
+	// Open a window replaying the trace in filename, with delay milliseconds
+	// after each SELECT, and buttons and a slider to pause and seek
+	public static void open(String filename, int delay) throws java.io.IOException {
+		TraceReader reader = TraceReader.open(filename);
+		Grid g = reader.makeGrid();
+		int[] steps = reader.readSteps();
+		GridGUI gui = new GridGUI(g, delay);
+		TracePlayer player = new TracePlayer(g, gui, steps);
+		g.setHandler(player);
+
+		MenuButton[] buttons = new MenuButton[2];
+		buttons[0] = new MenuButton("Play", player, "Play", g);
+		buttons[1] = new MenuButton("Pause", player, "Pause", g);
+		gui.createGUI("Replay: "+filename, buttons);
+		player.addSlider();
+
+		player.start();
+		player.play();
+	}
+
+	// Show and seek the position in the trace with a slider
+	private void addSlider() {
+		slider = new JSlider(0, steps.length, 0);
+		slider.setFocusable(false);
+		slider.addChangeListener(new javax.swing.event.ChangeListener() {
+			public void stateChanged(javax.swing.event.ChangeEvent e) {
+				if(!settingSlider) {
+					seek(slider.getValue());
+				}
+			}
+		});
+		// Follow the player, unless the user is dragging the slider
+		new javax.swing.Timer(100, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if(!slider.getValueIsAdjusting()) {
+					settingSlider = true;
+					slider.setValue(position);
+					settingSlider = false;
+				}
+			}
+		}).start();
+		gui.addControl(slider);
+	}
+
+	// Start the thread which carries out play(), pause() and seek(), from
+	// an unmarked grid
+	public void start() {
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				reset();
+				loop();
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+	}
+
+	// Play from the current step, or from the start after the last one
+	public void play() {
+		commands.add(PLAY);
+	}
+
+	public void pause() {
+		commands.add(PAUSE);
+	}
+
+	// Show the grid as it was after the first n steps
+	public void seek(int n) {
+		commands.add(Math.max(0, Math.min(n, steps.length)));
+	}
+
+	// Show every step from the first, and return once they've been shown.
+	// Don't use with start()
+	public void replay() {
+		reset();
+		while(position < steps.length) {
+			step();
+		}
+		stopStream();
+	}
+
+	private void loop() {
+		try {
+			while(true) {
+				Integer command = playing ? commands.poll() : commands.take();
+				if(command == null) {
+					if(position < steps.length) {
+						step();
+					} else {
+						playing = false;
+						stopStream();
+					}
+				} else if(command == PLAY) {
+					if(position == steps.length) {
+						seekTo(0);
+					}
+					playing = true;
+				} else if(command == PAUSE) {
+					playing = false;
+					stopStream();
+				} else if(!((commands.peek() != null) && (commands.peek() >= 0))) {
+					// Only the latest of several seeks matters
+					stopStream();
+					seekTo(command);
+				}
+			}
+		} catch(InterruptedException e) {
+			stopStream();
+		}
+	}
+
+	// Send the next step to the renderer, starting a stream if need be
+	private void step() {
+		if(publisher == null) {
+			publisher = new StepPublisher(gui.getDelay(), null);
+			renderer = gui.render(publisher, marker);
+		}
+		StepPublisher.send(steps[position++], publisher);
+	}
+
+	// End the stream, once every step sent has been shown
+	private void stopStream() {
+		if(publisher != null) {
+			publisher.onFinish(null);
+			renderer.awaitFinish();
+			publisher = null;
+		}
+	}
+
+	private void reset() {
+		grid.removeMarkings();
+		marker = new GridMarker(grid);
+		position = 0;
+	}
+
+	// Mark the steps up to n directly. No stream may be running
+	private void seekTo(int n) {
+		if(n < position) {
+			reset();
+		}
+		while(position < n) {
+			int last = Math.min(n, position + StepPublisher.CHUNK);
+			// A chunk at a time, so the grid can be painted in between
+			synchronized(grid) {
+				for(int k=position; k<last; k++) {
+					StepPublisher.send(steps[k], marker);
+				}
+			}
+			position = last;
+		}
+		gui.instantUpdate();
+	}
+
+	// Deal with the Play and Pause buttons. Cells can't be changed
+	public void processInput(Content c) {
+		if(c instanceof MenuButton) {
+			switch(((MenuButton) c).getAction()) {
+				case "Play":
+					play();
+					break;
+				case "Pause":
+					pause();
+					break;
+			}
+		}
+	}
+
+	public void updateDisplay() {
+		gui.instantUpdate();
+	}
+}
+
+// Create main menu, from which user can create a grid
+class Demo implements Handler {
+
+	Grid g;
+	GridGUI gui;
+	ClusterHierarchy hierarchy; // For HPA*, made the first time it's run
+
+	// Create a menu, launch main window on start button press
+	public void runMenu() {
+		Color pastelBlue = Utilities.makeColor(175.0, 218.0, 240.0);
+
+		CustomFrame frame = new CustomFrame(500, 350, "Choose grid size", false);
 		CustomPanel panel = frame.getContentPanel();
 		GridBagConstraints constraints = panel.getConstraints();
 
@@ -941,28 +2349,52 @@ class Demo implements Handler {
 	// Setup grid and tell GridGUI to display it in a window
 	private void run(int x, int y, int delay) {
 
-		g = new Grid(x, y, this); // Create grid of zeros
+		Grid g = new Grid(x, y, this); // Create grid of zeros
 
 		g.setCellValue(0, 0, 2); // Make start square in top-left
 		g.setCellValue(x-1, y-1, 3); // Make start square in bottom-right
 
-		// Make longest dimension of window take 80% of screen height
-		Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
-		int windowDimension = (int) ((float) screenSize.getHeight() * 0.8);
+		show(g, delay);
+	}
 
-		int longestDimension = (g.getWidth() > g.getHeight()) ? g.getWidth() : g.getHeight();
-		// + 1 to leave space for menu buttons on bottom row
-		int cellWidth = windowDimension / (longestDimension + 1);
-		int cellHeight = cellWidth;
+	// Open the grid in filename (see GridIO.load()) in a window. START and
+	// END are put in the first and last EMPTY cells
+	public void view(String filename, int delay) throws java.io.IOException {
+		Grid g = GridIO.load(filename);
+		g.setHandler(this);
+		int first = g.find(0);
+		if(first == -1) {
+			throw new java.io.IOException(filename+": no EMPTY cells");
+		}
+		g.setCellValue(g.indexToX(first), g.indexToY(first), 2);
+		for(int i=(g.getWidth() * g.getHeight()) - 1; i>=0; i--) {
+			if(g.getCellValue(i % g.getWidth(), i / g.getWidth()) == 0) {
+				g.setCellValue(i % g.getWidth(), i / g.getWidth(), 3);
+				break;
+			}
+		}
+		show(g, delay);
+	}
+
+	// Tell GridGUI to display g in a window, with the menu buttons
+	private void show(Grid g, int delay) {
+
+		this.g = g;
+		hierarchy = null;
 
 		gui = new GridGUI(g, delay);
 
-		MenuButton[] buttons = new MenuButton[3];
+		MenuButton[] buttons = new MenuButton[8];
 		buttons[0] = new MenuButton("A*", this, "A*", g);
 		buttons[1] = new MenuButton("Dijkstra", this, "Dijkstra", g);
-		buttons[2] = new MenuButton("Clear", this, "Clear", g);
+		buttons[2] = new MenuButton("BFS", this, "BFS", g);
+		buttons[3] = new MenuButton("JPS", this, "JPS", g);
+		buttons[4] = new MenuButton("BiA*", this, "BiA*", g);
+		buttons[5] = new MenuButton("HPA*", this, "HPA*", g);
+		buttons[6] = new MenuButton("Replay", this, "Replay", g);
+		buttons[7] = new MenuButton("Clear", this, "Clear", g);
 
-		gui.createGUI(cellWidth, cellHeight, "Pathfinding", buttons);
+		gui.createGUI("Pathfinding", buttons);
 
 	}
 
@@ -981,53 +2413,52 @@ class Demo implements Handler {
 		if(cont instanceof Cell) {
 			Cell c = (Cell) cont;
 			Grid g = c.getGrid();
-			// Cannot modify during execution
-			if(!g.getFinalised()) {
-				int value = c.getValue();
-				int valueToMove = g.getValueToMove();
-				boolean lock = g.getLock();
-				switch(value) {
-					case 0:
-						if(lock) {
-							// If start/end point is being moved, put it here and unlock grid
-							c.setValue(valueToMove);
-							g.toggleLock();
-							instantUpdate();
-						} else {
-							c.setValue(1);
-							instantUpdate();
-						}
-						break;
-					case 1:
-						if(lock) {
-							c.setValue(valueToMove);
-							g.toggleLock();
-							instantUpdate();
-						} else {
-							c.setValue(0);
-							instantUpdate();
-						}
-						break;
-					case 2:
-						// Move start square
-						if(!lock) {
-							g.toggleLock(); // Prevent algorithm from running
-							g.setValueToMove(2); // Make next click set new start square
-							c.setValue(0);
-							instantUpdate();
-						}
-						break;
-					case 3:
-						if(!lock) {
-							g.toggleLock();
-							g.setValueToMove(3);
-							c.setValue(0);
-							instantUpdate();
-						}
-						break;
-					default:
-						return;
-				}
+			// Searches run on a snapshot, so the grid can be modified during
+			// execution. Cells marked by the algorithm (value > 3) are ignored
+			int value = c.getValue();
+			int valueToMove = g.getValueToMove();
+			boolean lock = g.getLock();
+			switch(value) {
+				case 0:
+					if(lock) {
+						// If start/end point is being moved, put it here and unlock grid
+						c.setValue(valueToMove);
+						g.toggleLock();
+						instantUpdate();
+					} else {
+						c.setValue(1);
+						instantUpdate();
+					}
+					break;
+				case 1:
+					if(lock) {
+						c.setValue(valueToMove);
+						g.toggleLock();
+						instantUpdate();
+					} else {
+						c.setValue(0);
+						instantUpdate();
+					}
+					break;
+				case 2:
+					// Move start square
+					if(!lock) {
+						g.toggleLock(); // Prevent algorithm from running
+						g.setValueToMove(2); // Make next click set new start square
+						c.setValue(0);
+						instantUpdate();
+					}
+					break;
+				case 3:
+					if(!lock) {
+						g.toggleLock();
+						g.setValueToMove(3);
+						c.setValue(0);
+						instantUpdate();
+					}
+					break;
+				default:
+					return;
 			}
 		} else if(cont instanceof MenuButton) {
 			// Menu buttons trigger algorithm or reset the grid
@@ -1043,6 +2474,21 @@ class Demo implements Handler {
 					case "Dijkstra":
 						runDijkstra();
 						break;
+					case "BFS":
+						runBFS();
+						break;
+					case "JPS":
+						runJPS();
+						break;
+					case "BiA*":
+						runBidirectionalAStar();
+						break;
+					case "HPA*":
+						runHPA();
+						break;
+					case "Replay":
+						runReplay();
+						break;
 					case "Clear":
 						g.removeMarkings();
 						gui.instantUpdate();
@@ -1054,50 +2500,148 @@ class Demo implements Handler {
 
 	// Trigger A* algorithm and display summary stats
 	public void runAStar() {
+		g.finaliseGrid(); // Only one algorithm at a time
 		Thread t = new Thread(new Runnable() {
 			public void run() {
 				System.out.println("Running A*");
 				AlgorithmStats stats = new AlgorithmStats("A* Search");
 				Algorithms.AStar(g, gui, stats);
+				g.setFinalise(false);
 				System.out.println(stats.prettyPrint());
 			}
 		});
 		t.start();
 	}
 
-	// Trigger Dijkstra's algorithm and display summary stats
+	// Trigger Dijkstra's algorithm and display summary stats. This is the
+	// lazy version, since queueing every cell up front needs gigabytes on
+	// the biggest grids which can be viewed
 	public void runDijkstra() {
+		g.finaliseGrid();
 		Thread t = new Thread(new Runnable() {
 			public void run() {
 				System.out.println("Running Dijkstra");
 				AlgorithmStats stats = new AlgorithmStats("Dijkstra's Algorithm");
-				Algorithms.Dijkstra(g, gui, stats);
+				Algorithms.LazyDijkstra(g, gui, stats);
+				g.setFinalise(false);
 				System.out.println(stats.prettyPrint());
 			}
 		});
 		t.start();
 	}
-}
-
-// Tree node used by FibonacciHeap
-class Node {
 
-	private int key;
-	private KeyValue value;
-	private int numChildren;
-	private int degree;
-	private LinkedList<Node> children;
-	private boolean marked;
-	private Node parent;
+	// Trigger breadth-first search and display summary stats
+	public void runBFS() {
+		g.finaliseGrid();
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				System.out.println("Running BFS");
+				AlgorithmStats stats = new AlgorithmStats("Breadth-first Search");
+				Algorithms.BFS(g, gui, stats);
+				g.setFinalise(false);
+				System.out.println(stats.prettyPrint());
+			}
+		});
+		t.start();
+	}
 
-	public Node(int key, KeyValue value) {
-		this.key = key;
-		this.value = value;
-		this.value.setNode(this);
-		numChildren = 0;
-		degree = 1;
-		children = new LinkedList<Node>();
+	// Trigger jump point search and display summary stats
+	public void runJPS() {
+		g.finaliseGrid();
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				System.out.println("Running JPS");
+				AlgorithmStats stats = new AlgorithmStats("Jump Point Search");
+				Algorithms.JPS(g, gui, stats);
+				g.setFinalise(false);
+				System.out.println(stats.prettyPrint());
+			}
+		});
+		t.start();
+	}
+
+	// Trigger bidirectional A* and display summary stats
+	public void runBidirectionalAStar() {
+		g.finaliseGrid();
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				System.out.println("Running bidirectional A*");
+				AlgorithmStats stats = new AlgorithmStats("Bidirectional A* Search");
+				Algorithms.BidirectionalAStar(g, gui, stats);
+				g.setFinalise(false);
+				System.out.println(stats.prettyPrint());
+			}
+		});
+		t.start();
+	}
+
+	// Trigger hierarchical pathfinding and display summary stats. The
+	// hierarchy is kept up to date as walls are added and removed, see
+	// ClusterHierarchy. Its clusters are small, so the abstraction still
+	// helps on the grids made by runMenu()
+	public void runHPA() {
+		g.finaliseGrid();
+		if(hierarchy == null) {
+			hierarchy = ClusterHierarchy.attach(g, Math.max(2, Math.max(g.getWidth(), g.getHeight()) / 5));
+		}
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				System.out.println("Running HPA*");
+				AlgorithmStats stats = new AlgorithmStats("Hierarchical Pathfinding (HPA*)");
+				Algorithms.HPA(g, hierarchy, gui, stats);
+				g.setFinalise(false);
+				System.out.println(stats.prettyPrint());
+			}
+		});
+		t.start();
+	}
+
+	// Show the last search again from its trace, without running it, see
+	// TracePlayer. Walls moved since then are left where they are
+	public void runReplay() {
+		byte[] trace = gui.getLastTrace();
+		if(trace == null) {
+			return;
+		}
+		g.finaliseGrid();
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					int[] steps = new TraceReader(new java.io.ByteArrayInputStream(trace)).readSteps();
+					System.out.println("Replaying "+Integer.toString(steps.length)+" steps");
+					new TracePlayer(g, gui, steps).replay();
+				} catch(java.io.IOException e) {
+					System.err.println("Can't replay: "+e.getMessage());
+				}
+				g.setFinalise(false);
+			}
+		});
+		t.start();
+	}
+}
+
+// Tree node used by FibonacciHeap
+// Siblings form a circular doubly-linked list (left/right), so nodes can be
+// cut out of or spliced into a list in O(1)
+class Node {
+
+	private int key;
+	private KeyValue value;
+	private int rank; // Number of children
+	private boolean marked; // Lost a child since becoming a child itself
+	private Node parent;
+	private Node child; // Any one of the children, null if none
+	private Node left;
+	private Node right;
+
+	public Node(int key, KeyValue value) {
+		this.key = key;
+		this.value = value;
+		this.value.setNode(this);
+		rank = 0;
 		marked = false;
+		left = this;
+		right = this;
 	}
 
 	public int getKey() {
@@ -1117,15 +2661,7 @@ class Node {
 	}
 
 	public int getDegree() {
-		return degree;
-	}
-
-	public int getNumChildren() {
-		return numChildren;
-	}
-
-	public LinkedList<Node> getChildren() {
-		return children;
+		return rank;
 	}
 
 	public Node getParent() {
@@ -1136,39 +2672,16 @@ class Node {
 		parent = n;
 	}
 
-	public void addChild(Node n) {
-		children.add(n);
-		n.parent = this;
-		int nDegree = n.getDegree();
-		numChildren++;
-		degree+= nDegree;
-		// Update parent degrees
-		Node ptr = parent;
-		while(ptr != null) {
-			ptr.degree += nDegree;
-			ptr = ptr.parent;
-		}
+	public Node getChild() {
+		return child;
 	}
 
-	public void addChild(int k, KeyValue v) {
-		Node n = new Node(k, v);
-		addChild(n);
+	public Node getLeft() {
+		return left;
 	}
 
-	public void removeChild(Node n) {
-		boolean removed = children.remove(n);
-		numChildren = (removed) ? (numChildren - 1) : numChildren;
-		if(removed) {
-			numChildren--;
-			degree--;
-			// Update parent degrees
-			Node ptr = parent;
-			while(ptr != null) {
-				ptr.degree--;
-				ptr = ptr.parent;
-			}
-		}
-		n.setParent(null);
+	public Node getRight() {
+		return right;
 	}
 
 	public boolean getMarked() {
@@ -1179,305 +2692,587 @@ class Node {
 		marked = b;
 	}
 
-	public String toString(int depth, int childNum) {
-		String s;
-		if(childNum > 0) {
-			s = "\t("+Integer.toString(key)+", "+value.toString()+")";
+	// Remove this node from its sibling list, leaving it as a list of one
+	public void unlink() {
+		left.right = right;
+		right.left = left;
+		left = this;
+		right = this;
+	}
+
+	// Join the circular list containing n into the one containing this node
+	public void splice(Node n) {
+		Node r = right;
+		Node nl = n.left;
+		right = n;
+		n.left = this;
+		nl.right = r;
+		r.left = nl;
+	}
+
+	// Make n (a root of rank == this.rank) a child of this node
+	public void addChild(Node n) {
+		n.unlink();
+		n.parent = this;
+		n.marked = false;
+		if(child == null) {
+			child = n;
 		} else {
-			s = " ("+Integer.toString(key)+", "+value.toString()+")";
+			child.splice(n);
+		}
+		rank++;
+	}
+
+	// Detach n from the children of this node, leaving it as a list of one
+	public void removeChild(Node n) {
+		assert(n.parent == this);
+		if(n.right == n) {
+			child = null;
+		} else if(child == n) {
+			child = n.right;
 		}
+		n.unlink();
+		n.parent = null;
+		rank--;
+	}
+
+	public String toString(int depth) {
 		StringBuilder b = new StringBuilder();
-		b.append(s);
-		int i=0;
-		for(Node n : children) {
-			b.append(n.toString(depth+1, i));
-			b.append("\n");
-			i++;
+		for(int i=0; i<depth; i++) {
+			b.append("\t");
+		}
+		b.append("("+Integer.toString(key)+", "+value.toString()+")\n");
+		if(child != null) {
+			Node c = child;
+			do {
+				b.append(c.toString(depth+1));
+				c = c.right;
+			} while(c != child);
 		}
 		return b.toString();
 	}
 
 	@Override
 	public String toString() {
-		String s = " ("+Integer.toString(key)+", "+value.toString()+")";
-		StringBuilder b = new StringBuilder();
-		b.append(s);
-		int i=0;
-		for(Node n : children) {
-			b.append(n.toString(1, i));
-			b.append("\n");
-			i++;
-		}
-		return b.toString();
+		return toString(0);
 	}
 }
 
-class FibonacciHeap {
+class FibonacciHeap implements KeyValueQueue {
+
+	// Ranks are bounded by log_phi(n) < 46 for any n that fits in an int
+	private static final int MAX_RANK = 46;
 
-	Node minRoot; // Ptr to root w/ min key
-	LinkedList<Node> roots; // List of root nodes
+	Node minRoot; // Ptr to root w/ min key, and entry point to circular list of roots
+	int size;
+	Node[] byRank; // Scratch table used by consolidate(), indexed by rank
 
 	public FibonacciHeap() {
-		roots = new LinkedList<Node>();
+		minRoot = null;
+		size = 0;
+		byRank = new Node[MAX_RANK];
 	}
 
 	@Override
 	public String toString() {
-		String[] strings = new String[roots.size()];
-		int i=0;
-		for(Node n : roots) {
-			strings[i] = n.toString();
-			i++;
+		if(minRoot == null) {
+			return "";
 		}
-		return String.join("\n", strings);
-	}
-
-	public LinkedList<Node> getRoots() {
-		return roots;
+		StringBuilder b = new StringBuilder();
+		Node n = minRoot;
+		do {
+			b.append(n.toString());
+			n = n.getRight();
+		} while(n != minRoot);
+		return b.toString();
 	}
 
 	public boolean isEmpty() {
 		return (minRoot == null);
 	}
 
+	public int size() {
+		return size;
+	}
+
 	public Node getMinRoot() {
 		return minRoot;
 	}
 
 	public int findMinumumKey() {
-		return (minRoot == null ) ? null : minRoot.getKey();
+		assert(minRoot != null);
+		return minRoot.getKey();
 	}
 
 	public KeyValue findMinumumValue() {
-		return (minRoot == null ) ? null : minRoot.getValue();
+		return (minRoot == null) ? null : minRoot.getValue();
 	}
 
 	public void add(KeyValue v) {
-		int k = v.getKey();
-		Node n = new Node(k, v);
-		if(roots.size() == 0) {
-			roots.add(n);
-			minRoot = n;
-		} else {
-			roots.add(n);
-			minRoot = (k < minRoot.getKey()) ? n : minRoot;
-		}
+		addRoot(new Node(v.getKey(), v));
+		size++;
 	}
 
+	// Move all nodes of f into this heap. f should not be used afterwards
 	public void join(FibonacciHeap f) {
-		roots.addAll(f.getRoots());
-		minRoot = (minRoot.getKey() < f.minRoot.getKey()) ? minRoot : f.getMinRoot();
+		if(f.minRoot != null) {
+			addRoot(f.minRoot);
+			size += f.size;
+			f.minRoot = null;
+			f.size = 0;
+		}
 	}
 
-	public void decreaseKey(KeyValue v, int k) {
-		// outputRoots(); // For debugging
+	// Splice the list of roots containing n into the root list
+	private void addRoot(Node n) {
+		if(minRoot == null) {
+			minRoot = n;
+		} else {
+			minRoot.splice(n);
+			minRoot = (n.getKey() < minRoot.getKey()) ? n : minRoot;
+		}
+	}
 
+	public void decreaseKey(KeyValue v, int k) {
 		Node n = v.getNode();
 		assert(k < n.getKey());
 		n.setKey(k);
-		n.getValue().setKey(k);
-
-		n.setMarked(false);
+		v.setKey(k);
 
 		Node parent = n.getParent();
-
-		// Already a root
-		if(parent == null) {
-			minRoot = (minRoot.getKey() < n.getKey()) ? minRoot : n;
-			return;
-		}
 		// Heap property not violated
-		if(n.getKey() >= parent.getKey()) {
+		if((parent == null) || (k >= parent.getKey())) {
+			minRoot = (k < minRoot.getKey()) ? n : minRoot;
 			return;
 		}
 
-		// Cut from parent
+		cut(n, parent);
+		int cuts = 1 + cascadingCut(parent);
+		if(cuts >= DecreaseKeyCascadeEvent.MIN_CUTS) {
+			DecreaseKeyCascadeEvent.emit(k, cuts, size);
+		}
+	}
+
+	// Move n from the children of parent to the root list
+	private void cut(Node n, Node parent) {
 		parent.removeChild(n);
-		roots.add(n);
-		minRoot = (minRoot.getKey() < n.getKey()) ? minRoot : n;
+		n.setMarked(false);
+		addRoot(n);
+	}
 
-		// Recurse up tree
-		do {
-			n = parent;
-			parent = n.getParent();
-			// Mark unmarked parent if not root
+	// Mark n as having lost a child, or cut it too if it had already lost one.
+	// Returns the number of cuts made
+	private int cascadingCut(Node n) {
+		int cuts = 0;
+		Node parent = n.getParent();
+		while(parent != null) {
 			if(!n.getMarked()) {
-				if(parent != null) {
-					n.setMarked(true);
-				}
-				return;
-			} else {
-				n.setMarked(false);
+				n.setMarked(true);
+				return cuts;
 			}
-			// Cut from parent
-			parent.removeChild(n);
-			roots.add(n);
-			minRoot = (minRoot.getKey() < n.getKey()) ? minRoot : n;
-
-		} while(true);
+			cut(n, parent);
+			cuts++;
+			n = parent;
+			parent = n.getParent();
+		}
+		return cuts;
 	}
 
-	// Return index of node in array with same degree (tree size) as node
-	private int findSameDegree(Node[] array, Node node) {
-		int i = 0;
-		for(Node n : array) {
-			if(n == null) {
-				return -1;
-			}
-			if((n.getDegree() == node.getDegree()) && (n != node)) {
-				return i;
-			}
-			i++;
+	public KeyValue extractMinimum() {
+		if(minRoot == null) {
+			System.err.println("ERROR: TREE IS EMPTY");
+			return null;
 		}
-		return -1;
+		Node min = minRoot;
+		KeyValue returnVal = min.getValue();
+
+		// Promote children to roots
+		Node c = min.getChild();
+		if(c != null) {
+			Node next = c;
+			do {
+				next.setParent(null);
+				next = next.getRight();
+			} while(next != c);
+			min.splice(c);
+		}
+
+		if(min.getRight() == min) {
+			minRoot = null;
+		} else {
+			minRoot = min.getRight();
+			min.unlink();
+			consolidate();
+		}
+		min.setParent(null);
+		size--;
+
+		return returnVal;
 	}
 
-	// Set minRoot to element of roots with lowest key
-	private void updateMinRoot() {
-		minRoot = roots.getFirst();
-		for(Node r : roots) {
-			if(r.getKey() < minRoot.getKey()) {
-				minRoot = r;
+	// Link roots of equal rank until all ranks are distinct, then find the new minimum
+	private void consolidate() {
+		HeapConsolidationEvent event = new HeapConsolidationEvent();
+		event.begin();
+		int roots = 0;
+		int trees = 0;
+		int maxRank = 0;
+		Node w = minRoot;
+		Node last = minRoot.getLeft(); // Roots are visited up to and including this one
+		Node next, x, y, t;
+		int r;
+		boolean done = false;
+
+		while(!done) {
+			done = (w == last);
+			roots++;
+			next = w.getRight();
+			x = w;
+			r = x.getDegree();
+			while(byRank[r] != null) {
+				y = byRank[r];
+				byRank[r] = null;
+				// x keeps the lower key and adopts y
+				if(y.getKey() < x.getKey()) {
+					t = x;
+					x = y;
+					y = t;
+				}
+				if(y == last) {
+					// y is about to stop being a root; end the traversal at its predecessor
+					last = (y.getLeft() == y) ? x : y.getLeft();
+				}
+				x.addChild(y);
+				r++;
 			}
+			byRank[r] = x;
+			maxRank = (r > maxRank) ? r : maxRank;
+			w = next;
 		}
-	}
 
-	// Temp, for debugging
-	private void outputPtrList(Node[] list) {
-		System.out.println("\nPTR LIST: ");
-		for(Node n : list) {
-			if(n != null) {
-				System.out.println(Integer.toString(n.getKey())+": "+Integer.toString(n.getDegree()));
-			} else {
-				System.out.println("NULL");
+		// Rebuild minimum, emptying the table for next time
+		minRoot = null;
+		for(int i=0; i<=maxRank; i++) {
+			if(byRank[i] != null) {
+				if((minRoot == null) || (byRank[i].getKey() < minRoot.getKey())) {
+					minRoot = byRank[i];
+				}
+				byRank[i] = null;
+				trees++;
 			}
 		}
-		System.out.println();
-	}
 
-	// Temp, for debugging
-	private void outputDegrees(LinkedList<Node> l) {
-		System.out.println("\nALL DEGREES: ");
-		for(Node n : l) {
-			System.err.println(Integer.toString(n.getKey())+", "+Integer.toString(n.getDegree()));
+		if(event.shouldCommit()) {
+			event.roots = roots;
+			event.trees = trees;
+			event.heapSize = size;
+			event.commit();
 		}
 	}
 
-	private boolean contains(Node[] l, Node n) {
-		for(Node n2 : l) {
-			if(n2 == n) {
-				return true;
-			}
-		}
-		return false;
+}
+
+// Array-backed indexed d-ary heap. Each KeyValue stores its own position in
+// the array (see KeyValue.getIndex()), so decreaseKey doesn't need to search
+class DaryHeap implements KeyValueQueue {
+
+	private int arity; // Number of children per node, d
+	private KeyValue[] values;
+	private int[] keys; // keys[i] is the key of values[i], kept contiguous to avoid pointer chasing
+	private int size;
+
+	public DaryHeap(int d, int capacity) {
+		assert(d >= 2);
+		arity = d;
+		capacity = (capacity < 1) ? 1 : capacity;
+		values = new KeyValue[capacity];
+		keys = new int[capacity];
+		size = 0;
 	}
 
-	// Temp, for debugging: count roots equal to minRoot
-	private int countRoot() {
-		int c = 0;
-		for(Node n : roots) {
-			if(n == minRoot) {
-				c++;
-			}
-		}
-		return c;
+	public DaryHeap(int d) {
+		this(d, 16);
+	}
+
+	// 4-ary is usually fastest: shallower than binary, but children still share a cache line
+	public DaryHeap() {
+		this(4);
+	}
+
+	public boolean isEmpty() {
+		return (size == 0);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int findMinumumKey() {
+		assert(size > 0);
+		return keys[0];
 	}
 
-	// Temp, for debugging
-	private void outputRoots() {
-		for(Node n : roots) {
-			System.out.println(n.getValue().toString()+": "+n.getKey());
+	public KeyValue findMinumumValue() {
+		return (size == 0) ? null : values[0];
+	}
+
+	public void add(KeyValue v) {
+		if(size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+			keys = Arrays.copyOf(keys, size * 2);
 		}
-		System.out.println("Min: "+minRoot.getValue().toString()+": "+minRoot.getKey());
-		System.out.println();
+		int i = size++;
+		values[i] = v;
+		keys[i] = v.getKey();
+		v.setIndex(i);
+		siftUp(i);
+	}
+
+	public void decreaseKey(KeyValue v, int k) {
+		int i = v.getIndex();
+		assert((i >= 0) && (i < size) && (values[i] == v));
+		assert(k < keys[i]);
+		v.setKey(k);
+		keys[i] = k;
+		siftUp(i);
 	}
 
 	public KeyValue extractMinimum() {
-		if(minRoot == null) {
-			System.err.println("ERROR: TREE IS EMPTY");
+		if(size == 0) {
+			System.err.println("ERROR: HEAP IS EMPTY");
 			return null;
 		}
-		KeyValue returnVal = minRoot.getValue();
+		KeyValue returnVal = values[0];
+		returnVal.setIndex(-1);
+		size--;
+		if(size > 0) {
+			values[0] = values[size];
+			keys[0] = keys[size];
+			values[0].setIndex(0);
+			siftDown(0);
+		}
+		values[size] = null; // Don't hold on to removed items
+		return returnVal;
+	}
 
-		// outputRoots();
-		roots.remove(minRoot);
-		for(Node c : minRoot.getChildren()) {
-			roots.add(c);
+	// Move the element at i towards the root until its parent is no larger
+	private void siftUp(int i) {
+		KeyValue v = values[i];
+		int k = keys[i];
+		int parent;
+		while(i > 0) {
+			parent = (i - 1) / arity;
+			if(keys[parent] <= k) {
+				break;
+			}
+			values[i] = values[parent];
+			keys[i] = keys[parent];
+			values[i].setIndex(i);
+			i = parent;
+		}
+		values[i] = v;
+		keys[i] = k;
+		v.setIndex(i);
+	}
+
+	// Move the element at i towards the leaves until no child is smaller
+	private void siftDown(int i) {
+		KeyValue v = values[i];
+		int k = keys[i];
+		int first, last, min;
+		while(true) {
+			first = (i * arity) + 1;
+			if(first >= size) {
+				break;
+			}
+			last = (first + arity < size) ? (first + arity) : size;
+			min = first;
+			for(int c = first + 1; c < last; c++) {
+				if(keys[c] < keys[min]) {
+					min = c;
+				}
+			}
+			if(keys[min] >= k) {
+				break;
+			}
+			values[i] = values[min];
+			keys[i] = keys[min];
+			values[i].setIndex(i);
+			i = min;
 		}
+		values[i] = v;
+		keys[i] = k;
+		v.setIndex(i);
+	}
+
+}
 
-		int listSize = roots.size();
+// Array-backed indexed d-ary heap of int ids in [0, capacity), each with an
+// int key. Unlike DaryHeap it holds no objects, so it never allocates after
+// construction. Remembers which ids have been added and extracted, so
+// searches can use it as their open and closed sets
+class IntHeap {
 
-		if(listSize == 0) {
-			minRoot = null;
-			return returnVal;
+	private static final int ABSENT = -1; // Never added
+	private static final int REMOVED = -2; // Added, then extracted
+
+	private int arity; // Number of children per node, d
+	private int[] ids; // Heap-ordered
+	private int[] keys; // keys[i] is the key of ids[i]
+	private int[] pos; // pos[id] is the index of id in ids, or REMOVED. Only valid if stamp[id] == generation
+	private int[] stamp; // Generation in which pos[id] was last written
+	private int generation;
+	private int size;
+
+	public IntHeap(int d, int capacity) {
+		assert(d >= 2);
+		arity = d;
+		ids = new int[capacity];
+		keys = new int[capacity];
+		pos = new int[capacity];
+		stamp = new int[capacity];
+		generation = 1;
+		size = 0;
+	}
+
+	public IntHeap(int capacity) {
+		this(4, capacity);
+	}
+
+	public boolean isEmpty() {
+		return (size == 0);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return ids.length;
+	}
+
+	// Empty the heap and forget all ids, in O(1) by starting a new generation
+	public void clear() {
+		size = 0;
+		generation++;
+		if(generation == Integer.MAX_VALUE) {
+			// Stamps would wrap round and look current again
+			Arrays.fill(stamp, 0);
+			generation = 1;
 		}
+	}
 
-		Node[] ptrList = new Node[listSize];
+	private int getPos(int id) {
+		return (stamp[id] == generation) ? pos[id] : ABSENT;
+	}
 
-		int sameDegreeIndex;
-		Node withSameDegree;
-		int i = 0;
-		int nIndex, otherIndex;
-		boolean change;
-		boolean breakV;
-		LinkedList<Node> removalList = new LinkedList<Node>();
+	// True if id is currently in the heap
+	public boolean contains(int id) {
+		return (getPos(id) >= 0);
+	}
 
-		do {
-			// outputPtrList(ptrList);
-			// outputDegrees(roots);
-			change = false;
-			nIndex = 0;
-			for(Node n : roots) {
-				if(!contains(ptrList, n)) {
-					breakV = false;
-					sameDegreeIndex = findSameDegree(ptrList, n);
-
-					while(sameDegreeIndex != -1) {
-						withSameDegree = ptrList[sameDegreeIndex];
-						change = true;
-						breakV = true;
-
-						// Merge
-						// Use minRoot for lower key and withSameDegree for higher key
-						minRoot = (withSameDegree.getKey() < n.getKey()) ? withSameDegree : n;
-						withSameDegree = (minRoot == n) ? withSameDegree : n;
-
-						removalList.add(withSameDegree);
-						ptrList[sameDegreeIndex] = null;
-						i--;
-						i = (i < 0) ? (i + listSize) : i;
-						minRoot.addChild(withSameDegree);
-
-						// outputPtrList(ptrList);
-						// outputDegrees(roots);
-
-						sameDegreeIndex = findSameDegree(ptrList, n);
-					}
-					if(breakV) {
-						ptrList[i] = minRoot;
-						break;
-					} else {
-						while(ptrList[i] != null) {
-							i = (i + 1) % listSize;
-						}
-						ptrList[i++] = n;
-						// outputPtrList(ptrList);
-						// outputDegrees(roots);
-					}
-					// nIndex++;
+	// True if id has been added since the last clear(), whether or not it has been extracted since
+	public boolean wasAdded(int id) {
+		return (stamp[id] == generation);
+	}
 
-				}
-			}
-			for(Node r : removalList) {
-				roots.remove(r);
-			}
-		} while(change);
+	public boolean wasRemoved(int id) {
+		return (getPos(id) == REMOVED);
+	}
 
-		updateMinRoot();
+	// Key of id, which must be in the heap
+	public int getKey(int id) {
+		assert(contains(id));
+		return keys[pos[id]];
+	}
 
+	public int findMinumumKey() {
+		assert(size > 0);
+		return keys[0];
+	}
+
+	public void add(int id, int k) {
+		assert(!wasAdded(id));
+		int i = size++;
+		ids[i] = id;
+		keys[i] = k;
+		pos[id] = i;
+		stamp[id] = generation;
+		siftUp(i);
+	}
+
+	public void decreaseKey(int id, int k) {
+		assert(contains(id));
+		int i = pos[id];
+		assert(k < keys[i]);
+		keys[i] = k;
+		siftUp(i);
+	}
+
+	// Remove and return the id with the smallest key
+	public int extractMinimum() {
+		assert(size > 0);
+		int returnVal = ids[0];
+		pos[returnVal] = REMOVED;
+		size--;
+		if(size > 0) {
+			ids[0] = ids[size];
+			keys[0] = keys[size];
+			pos[ids[0]] = 0;
+			siftDown(0);
+		}
 		return returnVal;
 	}
 
+	// Move the element at i towards the root until its parent is no larger
+	private void siftUp(int i) {
+		int id = ids[i];
+		int k = keys[i];
+		int parent;
+		while(i > 0) {
+			parent = (i - 1) / arity;
+			if(keys[parent] <= k) {
+				break;
+			}
+			ids[i] = ids[parent];
+			keys[i] = keys[parent];
+			pos[ids[i]] = i;
+			i = parent;
+		}
+		ids[i] = id;
+		keys[i] = k;
+		pos[id] = i;
+	}
+
+	// Move the element at i towards the leaves until no child is smaller
+	private void siftDown(int i) {
+		int id = ids[i];
+		int k = keys[i];
+		int first, last, min;
+		while(true) {
+			first = (i * arity) + 1;
+			if(first >= size) {
+				break;
+			}
+			last = (first + arity < size) ? (first + arity) : size;
+			min = first;
+			for(int c = first + 1; c < last; c++) {
+				if(keys[c] < keys[min]) {
+					min = c;
+				}
+			}
+			if(keys[min] >= k) {
+				break;
+			}
+			ids[i] = ids[min];
+			keys[i] = keys[min];
+			pos[ids[i]] = i;
+			i = min;
+		}
+		ids[i] = id;
+		keys[i] = k;
+		pos[id] = i;
+	}
 
 }
 
@@ -1487,13 +3282,15 @@ class DijkstraContents implements KeyValue {
 	private int xcoord;
 	private int ycoord;
 	private KeyValue prev;
-	private Node node;
+	private Node node; // Used by FibonacciHeap
+	private int index; // Used by DaryHeap
 
 	public DijkstraContents(int key, KeyValue prev, int x, int y) {
 		this.key = key;
 		this.prev = prev;
 		xcoord = x;
 		ycoord = y;
+		index = -1;
 	}
 
 	public int getX() {
@@ -1528,6 +3325,14 @@ class DijkstraContents implements KeyValue {
 		node = n;
 	}
 
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int i) {
+		index = i;
+	}
+
 	public String toString() {
 		return new String(Integer.toString(xcoord)+", "+Integer.toString(ycoord));
 	}
@@ -1538,426 +3343,3985 @@ class DijkstraContents implements KeyValue {
 
 }
 
-class AlgorithmStats {
-	public String name;
-	public int iterations;
-	public boolean success;
-	public int pathLength;
-	public long startTime;
-	public long endTime;
-	public long runTime;
+// Fixed-capacity FIFO queue of ints, backed by a circular array
+class IntRingBuffer {
+	private int[] items;
+	private int head; // Index of next item to remove
+	private int size;
 
-	public AlgorithmStats(String n) {
-		name = n;
-		runTime = 0;
+	public IntRingBuffer(int capacity) {
+		items = new int[capacity];
+		head = 0;
+		size = 0;
 	}
 
-	public void startClock() {
-		startTime = System.currentTimeMillis();
+	public boolean isEmpty() {
+		return (size == 0);
 	}
 
-	public void stopClock() {
-		runTime += (System.currentTimeMillis() - startTime);
+	public int size() {
+		return size;
 	}
 
-	public String prettyPrint() {
-		StringBuilder b = new StringBuilder();
-		b.append("Statistics for\t"+name);
-		b.append("\nFound path:\t"+Boolean.toString(success));
-		b.append("\nPath length:\t"+Integer.toString(pathLength));
-		b.append("\nIterations:\t"+Integer.toString(iterations));
-		b.append("\nRuntime:\t"+Utilities.displayTime(runTime));
-		return b.toString();
+	public void clear() {
+		head = 0;
+		size = 0;
 	}
 
-}
-
-class Algorithms {
+	public void add(int v) {
+		assert(size < items.length);
+		int tail = head + size;
+		items[(tail < items.length) ? tail : (tail - items.length)] = v;
+		size++;
+	}
 
-	/* A* SEARCH AND HELPER METHODS */
+	public int remove() {
+		assert(size > 0);
+		int v = items[head];
+		head = (head + 1 < items.length) ? (head + 1) : 0;
+		size--;
+		return v;
+	}
+}
 
-	// Taxicab distance between (x1, y1) and (x2, y2)
-	private static int heuristic(int x1, int y1, int x2, int y2) {
-		return (Math.abs(x2 - x1) + Math.abs(y2 - y1));
+// Scratch arrays for searches over grids of a given number of cells,
+// allocated once per grid size and thread and reused between queries.
+// Rather than clearing the arrays before each query, entries are stamped
+// with the generation (query number) that wrote them, and entries with an
+// older stamp count as unset. Setup is then O(1) instead of O(cells)
+class SearchWorkspace {
+
+	private static final ThreadLocal<SearchWorkspace> workspaces = new ThreadLocal<SearchWorkspace>();
+
+	private int size;
+	private int[] stamp; // Generation in which each cell was last reached
+	private int generation;
+	public IntHeap heap;
+	public IntRingBuffer queue;
+	public int[] cameFrom; // Packed coordinates of predecessor, valid once a cell is reached
+	public int[] costs; // Distance from start, valid once a cell is reached
+	public int[] neighbours; // Output of Algorithms.generateNeighbours()
+	private long[] labels; // For a direction of a bidirectional search, see Frontier
+	private SearchWorkspace reverse; // For the other direction
+
+	public SearchWorkspace(int n) {
+		size = n;
+		stamp = new int[n];
+		generation = 0;
+		heap = new IntHeap(n);
+		queue = new IntRingBuffer(n);
+		cameFrom = new int[n];
+		costs = new int[n];
+		neighbours = new int[4];
+	}
+
+	// Return this thread's workspace for grids of n cells, ready for a new query
+	public static SearchWorkspace get(int n) {
+		SearchWorkspace w = workspaces.get();
+		if((w == null) || (w.size != n)) {
+			w = new SearchWorkspace(n);
+			workspaces.set(w);
+		}
+		w.begin();
+		return w;
 	}
 
-	// Return indices of (first instance of) x in matrix
-	private static int[] findX(int[][] matrix, int width, int height, int x) {
-		int[] coords = new int[2];
-		for(int j=0; j<width; j++) {
-			for(int i=0; i<height; i++) {
-				if(matrix[j][i] == x) {
-					coords[0] = j;
-					coords[1] = i;
-					return coords;
-				}
+	// Invalidate everything from the previous query
+	public void begin() {
+		generation++;
+		if(generation == Integer.MAX_VALUE) {
+			Arrays.fill(stamp, 0);
+			if(labels != null) {
+				Arrays.fill(labels, 0);
 			}
+			generation = 1;
 		}
-		return null;
+		heap.clear();
+		queue.clear();
 	}
 
-	// Create a 2D int array of dimensions [x][y], all set to value v
-	private static int[][] initMatrix(int x, int y, int v) {
-		int[][] m = new int[x][y];
-		for(int j=0; j<x; j++) {
-			for(int i=0; i<y; i++) {
-				m[j][i] = v;
+	public int size() {
+		return size;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	// Labels for a Frontier, made the first time they're needed
+	public long[] getLabels() {
+		if(labels == null) {
+			labels = new long[size];
+		}
+		return labels;
+	}
+
+	// A second workspace, ready for the backward direction of a
+	// bidirectional search. It may be used by another thread until the
+	// search returns
+	public SearchWorkspace getReverse() {
+		if(reverse == null) {
+			reverse = new SearchWorkspace(size);
+		}
+		reverse.begin();
+		return reverse;
+	}
+
+	public boolean isReached(int c) {
+		return (stamp[c] == generation);
+	}
+
+	public void markReached(int c) {
+		stamp[c] = generation;
+	}
+}
+
+// Instrumentation for one search: the time spent in each phase, counts of
+// the work done and the bytes allocated. A search given an AlgorithmStats
+// calls begin(), endSetup(), endSearch() and end() as it moves from setup to
+// the search itself to reconstructing the path, then record(). Engines which
+// make a table before searching, e.g. JPS+, report the time with
+// recordPreprocess() afterwards. Time spent in a SearchListener is reported
+// with addListenerTime() and excluded from the phase it happened in. The
+// results can be exported with toRecord()
+class AlgorithmStats {
+	// Counts allocation by thread, null if the JVM can't
+	private static final com.sun.management.ThreadMXBean threads = allocationCounter();
+
+	public String name;
+	public boolean success;
+	public int pathLength;
+	public int expansions; // Cells taken from the open set
+	public int pushes; // Cells added to the open set
+	public int decreaseKeys; // Open cells whose key was lowered
+	public int reopenings; // Closed cells put back in the open set
+	public int peakOpen; // Largest size of the open set
+	public long preprocessNanos; // Making (or waiting for) a table, 0 if there was one
+	public long setupNanos;
+	public long searchNanos;
+	public long reconstructionNanos;
+	public long listenerNanos; // Excluded from the phases above
+	public long allocatedBytes; // By this thread during the search, -1 if unknown
+
+	private long phaseStart; // nanoTime() at start of current phase
+	private long phaseListenerNanos; // listenerNanos at start of current phase
+	private long allocatedStart;
+
+	public AlgorithmStats(String n) {
+		name = n;
+		allocatedBytes = -1;
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+		if((bean instanceof com.sun.management.ThreadMXBean) && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			return (com.sun.management.ThreadMXBean) bean;
+		}
+		return null;
+	}
+
+	private static long allocated() {
+		return (threads == null) ? -1 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	// Reset everything and start the setup phase
+	public void begin() {
+		success = false;
+		pathLength = -1;
+		expansions = pushes = decreaseKeys = reopenings = peakOpen = 0;
+		preprocessNanos = setupNanos = searchNanos = reconstructionNanos = listenerNanos = 0;
+		phaseListenerNanos = 0;
+		allocatedStart = allocated();
+		phaseStart = System.nanoTime();
+	}
+
+	// Return time since the current phase started, less time in listeners,
+	// and start the next phase
+	private long lap() {
+		long now = System.nanoTime();
+		long t = (now - phaseStart) - (listenerNanos - phaseListenerNanos);
+		phaseStart = now;
+		phaseListenerNanos = listenerNanos;
+		return t;
+	}
+
+	public void endSetup() {
+		setupNanos = lap();
+	}
+
+	public void endSearch() {
+		searchNanos = lap();
+	}
+
+	// End path reconstruction, which is empty if no path was found
+	public void end() {
+		reconstructionNanos = lap();
+		long now = allocated();
+		allocatedBytes = ((now == -1) || (allocatedStart == -1)) ? -1 : (now - allocatedStart);
+	}
+
+	public void addListenerTime(long nanos) {
+		listenerNanos += nanos;
+	}
+
+	// Record the time spent making the table the search used, after the
+	// search, since begin() clears it
+	public void recordPreprocess(long nanos) {
+		preprocessNanos = nanos;
+	}
+
+	// Record the outcome and the counts of work done
+	public void record(PathResult r, int pushes, int decreaseKeys, int reopenings, int peakOpen) {
+		success = r.isFound();
+		pathLength = r.getLength();
+		expansions = r.getExpansions();
+		this.pushes = pushes;
+		this.decreaseKeys = decreaseKeys;
+		this.reopenings = reopenings;
+		this.peakOpen = peakOpen;
+	}
+
+	// Total of the phases, excluding time in listeners
+	public long getRunTime() {
+		return preprocessNanos + setupNanos + searchNanos + reconstructionNanos;
+	}
+
+	// Every statistic by name, in a fixed order, with times in ns
+	public LinkedHashMap<String, Object> toRecord() {
+		LinkedHashMap<String, Object> r = new LinkedHashMap<String, Object>();
+		r.put("name", name);
+		r.put("found", success);
+		r.put("length", pathLength);
+		r.put("expansions", expansions);
+		r.put("pushes", pushes);
+		r.put("decreaseKeys", decreaseKeys);
+		r.put("reopenings", reopenings);
+		r.put("peakOpen", peakOpen);
+		r.put("preprocessNanos", preprocessNanos);
+		r.put("setupNanos", setupNanos);
+		r.put("searchNanos", searchNanos);
+		r.put("reconstructionNanos", reconstructionNanos);
+		r.put("nanos", getRunTime());
+		r.put("allocatedBytes", allocatedBytes);
+		return r;
+	}
+
+	// Names of the fields of toCSV()
+	public static String csvHeader() {
+		return String.join(",", new AlgorithmStats("").toRecord().keySet());
+	}
+
+	// toRecord() as a line of comma separated values, without a newline
+	public String toCSV() {
+		StringBuilder b = new StringBuilder();
+		for(Object v : toRecord().values()) {
+			if(b.length() > 0) {
+				b.append(',');
 			}
+			b.append(v);
 		}
-		return m;
+		return b.toString();
 	}
 
-	// Return the element of l which indexes the smallest value in m
-	private static int[] findMinumum(int[][] m, ArrayList<int[]> l, int upperBound) {
-		int val;
-		int minVal = upperBound;
-		int[] minCoord = null;
-		for(int[] c : l) {
-			val = m[c[0]][c[1]];
-			if(val < minVal) {
-				minVal = val;
-				minCoord = c; // NOTE: Is reference okay here or we need deepcopy?
+	// toRecord() as the fields of a JSON object, without the braces, so
+	// that more can be added
+	public String toJSONFields() {
+		StringBuilder b = new StringBuilder();
+		for(Map.Entry<String, Object> e : toRecord().entrySet()) {
+			if(b.length() > 0) {
+				b.append(',');
+			}
+			b.append('"').append(e.getKey()).append("\":");
+			if(e.getValue() instanceof String) {
+				b.append('"').append(((String) e.getValue()).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+			} else {
+				b.append(e.getValue());
 			}
 		}
-		return minCoord;
+		return b.toString();
 	}
 
-	// Fill n with coords representing neighbours of c, in matrix m
-	// of dimensions [x][y]. Neighbours are vertically or horizontally touching
-	// cells which don't contain obstacles (value != 1)
-	private static void generateNeighbours(ArrayList<int[]> n, int[] c, int[][] m, int x, int y) {
-		n.clear();
-		int cx = c[0];
-		int cy = c[1];
-		if((cx > 0) && (m[cx - 1][cy] != 1)) {
-			n.add(new int[] {cx - 1, cy}); // NOTE: legal?
+	public String prettyPrint() {
+		StringBuilder b = new StringBuilder();
+		b.append("Statistics for\t"+name);
+		b.append("\nFound path:\t"+Boolean.toString(success));
+		b.append("\nPath length:\t"+Integer.toString(pathLength));
+		b.append("\nExpansions:\t"+Integer.toString(expansions));
+		b.append("\nPushes:\t\t"+Integer.toString(pushes));
+		b.append("\nDecrease keys:\t"+Integer.toString(decreaseKeys));
+		b.append("\nReopenings:\t"+Integer.toString(reopenings));
+		b.append("\nPeak open set:\t"+Integer.toString(peakOpen));
+		b.append("\nPreprocessing:\t"+Utilities.displayNanos(preprocessNanos));
+		b.append("\nSetup:\t\t"+Utilities.displayNanos(setupNanos));
+		b.append("\nSearch:\t\t"+Utilities.displayNanos(searchNanos));
+		b.append("\nReconstruction:\t"+Utilities.displayNanos(reconstructionNanos));
+		b.append("\nRuntime:\t"+Utilities.displayNanos(getRunTime()));
+		b.append("\nAllocated:\t"+((allocatedBytes == -1) ? "unknown" : (Long.toString(allocatedBytes)+" bytes")));
+		return b.toString();
+	}
+
+}
+
+// Java Flight Recorder events, so searches can be told apart in recordings
+// of a running program. Record with e.g.
+//   java -XX:StartFlightRecording:filename=pathfind.jfr Pathfind batch ...
+// then view with "jfr print --events pathfind.Search pathfind.jfr".
+// The FibonacciHeap events are off unless enabled, e.g. with
+//   -XX:StartFlightRecording:+pathfind.HeapConsolidation#enabled=true,...
+
+// One search, from setup to the end of path reconstruction
+@jdk.jfr.Name("pathfind.Search")
+@jdk.jfr.Label("Path Search")
+@jdk.jfr.Category("Pathfind")
+@jdk.jfr.Description("A single path query")
+class SearchEvent extends jdk.jfr.Event {
+	@jdk.jfr.Label("Algorithm")
+	String algorithm;
+	@jdk.jfr.Label("Grid Width")
+	int width;
+	@jdk.jfr.Label("Grid Height")
+	int height;
+	@jdk.jfr.Label("Start X")
+	int startX;
+	@jdk.jfr.Label("Start Y")
+	int startY;
+	@jdk.jfr.Label("End X")
+	int endX;
+	@jdk.jfr.Label("End Y")
+	int endY;
+	@jdk.jfr.Label("Found")
+	boolean found;
+	@jdk.jfr.Label("Path Length")
+	int pathLength;
+	@jdk.jfr.Label("Expansions")
+	int expansions;
+
+	// Begin timing a search of s from start to end with algorithm
+	public static SearchEvent start(String algorithm, GridSnapshot s, int start, int end) {
+		SearchEvent e = new SearchEvent();
+		e.begin();
+		if(e.isEnabled()) {
+			e.algorithm = algorithm;
+			e.width = s.getWidth();
+			e.height = s.getHeight();
+			e.startX = s.indexToX(start);
+			e.startY = s.indexToY(start);
+			e.endX = s.indexToX(end);
+			e.endY = s.indexToY(end);
+		}
+		return e;
+	}
+
+	// End the search, which returned r, and record it if enabled
+	public void finish(PathResult r) {
+		if(shouldCommit()) {
+			found = r.isFound();
+			pathLength = r.getLength();
+			expansions = r.getExpansions();
+			commit();
+		}
+	}
+}
+
+// A FibonacciHeap consolidation taking longer than the threshold
+@jdk.jfr.Name("pathfind.HeapConsolidation")
+@jdk.jfr.Label("Heap Consolidation")
+@jdk.jfr.Category({"Pathfind", "Heap"})
+@jdk.jfr.Enabled(false)
+@jdk.jfr.Threshold("50 us")
+class HeapConsolidationEvent extends jdk.jfr.Event {
+	@jdk.jfr.Label("Roots Before")
+	int roots;
+	@jdk.jfr.Label("Trees After")
+	int trees;
+	@jdk.jfr.Label("Heap Size")
+	int heapSize;
+}
+
+// A FibonacciHeap decreaseKey which cut at least MIN_CUTS nodes
+@jdk.jfr.Name("pathfind.DecreaseKeyCascade")
+@jdk.jfr.Label("Decrease Key Cascade")
+@jdk.jfr.Category({"Pathfind", "Heap"})
+@jdk.jfr.Enabled(false)
+class DecreaseKeyCascadeEvent extends jdk.jfr.Event {
+	// Shorter cascades are routine and not recorded
+	public static final int MIN_CUTS = 4;
+
+	@jdk.jfr.Label("New Key")
+	int key;
+	@jdk.jfr.Label("Cuts")
+	int cuts;
+	@jdk.jfr.Label("Heap Size")
+	int heapSize;
+
+	public static void emit(int key, int cuts, int heapSize) {
+		DecreaseKeyCascadeEvent e = new DecreaseKeyCascadeEvent();
+		if(e.shouldCommit()) {
+			e.key = key;
+			e.cuts = cuts;
+			e.heapSize = heapSize;
+			e.commit();
+		}
+	}
+}
+
+// Outcome of a search: the path found (if any) and how much work it took.
+// Cells are indices into the GridSnapshot which was searched
+class PathResult {
+	private int[] path; // From start to end inclusive, null if no path
+	private int stride; // Of the GridSnapshot, to turn indices into coordinates
+	private int expansions;
+
+	public PathResult(int[] path, int stride, int expansions) {
+		this.path = path;
+		this.stride = stride;
+		this.expansions = expansions;
+	}
+
+	public boolean isFound() {
+		return (path != null);
+	}
+
+	// Number of steps from start to end, -1 if no path
+	public int getLength() {
+		return (path == null) ? -1 : (path.length - 1);
+	}
+
+	// Number of cells expanded (taken from the open set) before finishing
+	public int getExpansions() {
+		return expansions;
+	}
+
+	// Index of the i-th cell of the path, the start being cell 0
+	public int getPathIndex(int i) {
+		return path[i];
+	}
+
+	public int getPathX(int i) {
+		return (path[i] % stride) - 1;
+	}
+
+	public int getPathY(int i) {
+		return (path[i] / stride) - 1;
+	}
+}
+
+// Receives the steps of a search as they happen, e.g. to visualise them.
+// Cells are indices into the GridSnapshot being searched
+// Implemented by: GridMarker, StepPublisher
+interface SearchListener {
+	public void onStart();
+	public void onOpen(int c); // c added to the open set (or queue)
+	public void onSelect(int c); // c about to be expanded, after which it is visited
+	public void onSolution(int c); // c is on the path found, called for each cell but the start
+	public void onFinish(PathResult r);
+}
+
+// A pathfinding algorithm which needs no GUI and doesn't change the Grid.
+// listener and stats may be null. Engines can be shared between threads.
+// See Algorithms.getEngine()
+interface PathEngine {
+	public String getName();
+	public PathResult findPath(GridSnapshot grid, int start, int end, SearchListener listener, AlgorithmStats stats);
+}
+
+// Shows the steps of a search on a Grid by marking the cells involved
+// Used by GridRenderer to replay the steps published by a StepPublisher
+class GridMarker implements SearchListener {
+	private Grid g;
+	private int current; // Cell being expanded, -1 if none
+
+	public GridMarker(Grid g) {
+		this.g = g;
+		current = -1;
+	}
+
+	public void onStart() {
+	}
+
+	public void onOpen(int c) {
+		g.markOpen(g.indexToX(c), g.indexToY(c));
+	}
+
+	public void onSelect(int c) {
+		if(current != -1) {
+			g.markUnselected(g.indexToX(current), g.indexToY(current));
+			g.markVisited(g.indexToX(current), g.indexToY(current));
 		}
-		if((cx < (x - 1)) && (m[cx + 1][cy] != 1)) {
-			n.add(new int[] {cx + 1, cy});
+		current = c;
+		g.markUnopen(g.indexToX(c), g.indexToY(c));
+		g.markSelected(g.indexToX(c), g.indexToY(c));
+	}
+
+	public void onSolution(int c) {
+		g.markSolution(g.indexToX(c), g.indexToY(c));
+	}
+
+	public void onFinish(PathResult r) {
+	}
+}
+
+// Publishes the steps of a search as a Flow of int[] chunks, each int being
+// one step: the kind of step (OPEN, SELECT or SOLUTION) in the top 3 bits
+// and the cell in the rest. Steps are buffered into chunks so the search
+// doesn't hand over (or allocate) anything per step, and the stream is
+// closed when the search finishes. Subscribers only get as many chunks as
+// they request, and submit() blocks once BUFFER chunks are waiting, so a
+// search can't get further ahead of a slow subscriber than that.
+// With a delay, each SELECT is sent at once and followed by a sleep, so the
+// search can be watched step by step. Time spent sending chunks, including
+// waiting, and sleeping is excluded from the AlgorithmStats phases
+class StepPublisher extends SubmissionPublisher<int[]> implements SearchListener {
+	public static final int OPEN = 1;
+	public static final int SELECT = 2;
+	public static final int SOLUTION = 3;
+	public static final int CHUNK = 16384; // Steps per chunk, at most
+	public static final int BUFFER = 64; // Chunks waiting per subscriber, at most
+
+	private int[] chunk;
+	private int count; // Steps in chunk
+	private int delayMilliseconds;
+	private AlgorithmStats stats; // May be null
+
+	public StepPublisher(int delay, AlgorithmStats stats) {
+		super(ForkJoinPool.commonPool(), BUFFER);
+		chunk = new int[CHUNK];
+		count = 0;
+		delayMilliseconds = delay;
+		this.stats = stats;
+	}
+
+	public static int encode(int kind, int c) {
+		return (kind << 29) | c;
+	}
+
+	public static int kind(int step) {
+		return step >>> 29;
+	}
+
+	public static int cell(int step) {
+		return step & ((1 << 29) - 1);
+	}
+
+	// Pass step on to l, as the call it was made from
+	public static void send(int step, SearchListener l) {
+		switch(kind(step)) {
+			case OPEN:
+				l.onOpen(cell(step));
+				break;
+			case SELECT:
+				l.onSelect(cell(step));
+				break;
+			case SOLUTION:
+				l.onSolution(cell(step));
+				break;
 		}
-		if((cy > 0) && (m[cx][cy - 1] != 1)) {
-			n.add(new int[] {cx, cy - 1});
+	}
+
+	private void add(int kind, int c) {
+		chunk[count++] = encode(kind, c);
+		if(count == CHUNK) {
+			flush();
 		}
-		if((cy < (y - 1)) && (m[cx][cy + 1] != 1)) {
-			n.add(new int[] {cx, cy + 1});
+	}
+
+	// Send the steps so far, waiting if subscribers are too far behind
+	private void flush() {
+		if(count > 0) {
+			long t = System.nanoTime();
+			submit(Arrays.copyOf(chunk, count));
+			count = 0;
+			if(stats != null) {
+				stats.addListenerTime(System.nanoTime() - t);
+			}
 		}
 	}
 
-	// Turn (xcoord, ycoord) into a single integer, corresponding to its index if the rows were placed side-by-side
-	private static int packCoords(int xcoord, int ycoord, int xdim, int ydim) {
-		return (ycoord * xdim) + xcoord;
+	public void onStart() {
 	}
 
-	// Turn a packed coord from the above method back into (xcoord, ycoord)
-	private static int[] unPackCoord(int c, int xdim, int ydim) {
-		int[] coords = new int[2];
-		coords[0] = c % xdim;
-		coords[1] = c / xdim;
-		return coords;
+	public void onOpen(int c) {
+		add(OPEN, c);
 	}
 
-	private static boolean coordEquals(int[] a, int[] b) {
-		return ((a[0] == b[0]) && (a[1] == b[1]));
+	public void onSelect(int c) {
+		add(SELECT, c);
+		if(delayMilliseconds > 0) {
+			flush();
+			long t = System.nanoTime();
+			Utilities.sleep(delayMilliseconds);
+			if(stats != null) {
+				stats.addListenerTime(System.nanoTime() - t);
+			}
+		}
+	}
+
+	public void onSolution(int c) {
+		add(SOLUTION, c);
 	}
 
-	private static boolean listContains(ArrayList<int[]> l, int[] c) {
-		for(int[] e : l) {
-			if((e[0] == c[0]) && (e[1] == c[1])) {
-				return true;
+	public void onFinish(PathResult r) {
+		flush();
+		close();
+	}
+}
+
+class Algorithms {
+
+	/* HELPER METHODS SHARED BY ALL ALGORITHMS */
+
+	// Each algorithm has a headless version, which searches a GridSnapshot
+	// between two cells, reports its steps to an optional SearchListener and
+	// returns a PathResult, and a version for Demo which runs it on a Grid,
+	// visualising it in a GridGUI (see StepPublisher) if one is given.
+	//
+	// Cells are identified by their index in GridSnapshot.getCells() so that
+	// the searches can read the grid directly, keep their state in flat int
+	// arrays of the same size, and don't allocate anything per step
+
+	// An engine which searches with a table made from the snapshot, made
+	// again for any snapshot it doesn't match. The table is swapped under a
+	// lock, so if several threads need a new one, one makes it while the
+	// others wait, and the time is reported with recordPreprocess()
+	private static abstract class TableEngine<T> implements PathEngine {
+		private volatile T table;
+
+		TableEngine(T table) {
+			this.table = table;
+		}
+
+		abstract boolean matches(T t, GridSnapshot s);
+
+		abstract T make(GridSnapshot s);
+
+		abstract PathResult search(GridSnapshot s, int start, int end, T t, SearchListener l, AlgorithmStats stats);
+
+		public PathResult findPath(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+			T t = table;
+			long nanos = 0;
+			if((t == null) || !matches(t, s)) {
+				long before = System.nanoTime();
+				t = tableFor(s);
+				nanos = System.nanoTime() - before;
+			}
+			PathResult result = search(s, start, end, t, l, stats);
+			if(stats != null) {
+				stats.recordPreprocess(nanos);
+			}
+			return result;
+		}
+
+		private synchronized T tableFor(GridSnapshot s) {
+			if((table == null) || !matches(table, s)) {
+				table = make(s);
 			}
+			return table;
+		}
+	}
+
+	// Return the headless engine for the algorithm called name, or null
+	// Names are as on the Demo's buttons: "A*", "Dijkstra", "BFS", "JPS",
+	// "BiA*" and "HPA*", plus "JPS+" for getJPSPlusEngine(), "ALT" for
+	// getALTEngine(), "CH" for getCHEngine(), "BiDijkstra", and
+	// "BiA*-parallel" and "BiDijkstra-parallel" for two threads
+	public static PathEngine getEngine(String name) {
+		switch(name) {
+			case "A*":
+				return new PathEngine() {
+					public String getName() {
+						return "A*";
+					}
+					public PathResult findPath(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+						return AStar(s, start, end, l, stats);
+					}
+				};
+			case "Dijkstra":
+				return new PathEngine() {
+					public String getName() {
+						return "Dijkstra";
+					}
+					public PathResult findPath(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+						return LazyDijkstra(s, start, end, l, stats);
+					}
+				};
+			case "BFS":
+				return new PathEngine() {
+					public String getName() {
+						return "BFS";
+					}
+					public PathResult findPath(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+						return BFS(s, start, end, l, stats);
+					}
+				};
+			case "JPS":
+				return new PathEngine() {
+					public String getName() {
+						return "JPS";
+					}
+					public PathResult findPath(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+						return JPS(s, start, end, l, stats);
+					}
+				};
+			case "JPS+":
+				return getJPSPlusEngine(null);
+			case "BiA*":
+				return new PathEngine() {
+					public String getName() {
+						return "BiA*";
+					}
+					public PathResult findPath(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+						return BidirectionalAStar(s, start, end, false, l, stats);
+					}
+				};
+			case "BiDijkstra":
+				return new PathEngine() {
+					public String getName() {
+						return "BiDijkstra";
+					}
+					public PathResult findPath(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+						return BidirectionalDijkstra(s, start, end, false, l, stats);
+					}
+				};
+			case "BiA*-parallel":
+				return new PathEngine() {
+					public String getName() {
+						return "BiA*-parallel";
+					}
+					public PathResult findPath(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+						return BidirectionalAStar(s, start, end, true, l, stats);
+					}
+				};
+			case "BiDijkstra-parallel":
+				return new PathEngine() {
+					public String getName() {
+						return "BiDijkstra-parallel";
+					}
+					public PathResult findPath(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+						return BidirectionalDijkstra(s, start, end, true, l, stats);
+					}
+				};
+			case "HPA*":
+				return getHPAEngine(null);
+			case "ALT":
+				return getALTEngine(null);
+			case "CH":
+				return getCHEngine(null);
+			default:
+				return null;
 		}
-		return false;
 	}
 
-	// Return list of coordinates leading from start to current
-	private static ArrayList<int[]> reconstructPath(int[][] cameFrom, int[] start, int[] current, int x, int y) {
-		ArrayList<int[]> path = new ArrayList<int[]>();
-		int[] ptr = current;
+	// Run engine on g between its START and END cells, visualising it in gui
+	// if not null, and record the outcome in stats. Returns the length of the
+	// path found, or -1, once gui has shown the whole search
+	private static int run(PathEngine engine, Grid g, GridGUI gui, AlgorithmStats stats) {
+		GridSnapshot s = g.snapshot();
+		assert((s.getStart() != -1) && (s.getEnd() != -1));
+		if(gui == null) {
+			return engine.findPath(s, s.getStart(), s.getEnd(), null, stats).getLength();
+		}
+		StepPublisher p = new StepPublisher(gui.getDelay(), stats);
+		GridRenderer r = gui.render(p, s);
+		try {
+			return engine.findPath(s, s.getStart(), s.getEnd(), p, stats).getLength();
+		} finally {
+			p.close(); // In case the search failed
+			r.awaitFinish();
+		}
+	}
 
-		while(!coordEquals(ptr, start)) {
-			path.add(ptr);
-			ptr = unPackCoord(cameFrom[ptr[0]][ptr[1]], x, y);
+	// End a search which returns r: record the counts given and end the last
+	// phase in stats, if not null, commit event, then tell l, if not null
+	private static PathResult finish(PathResult r, SearchListener l, AlgorithmStats stats, SearchEvent event, int pushes, int decreaseKeys, int reopenings, int peakOpen) {
+		event.finish(r);
+		if(stats != null) {
+			stats.end();
+			stats.record(r, pushes, decreaseKeys, reopenings, peakOpen);
+		}
+		if(l != null) {
+			l.onFinish(r);
+		}
+		return r;
+	}
+
+	// Fill n with indices of the neighbours of cell c, in the array of cells
+	// from a grid with the given stride, and return how many there are.
+	// Neighbours are vertically or horizontally touching cells which don't
+	// contain obstacles (value != 1). The grid's border of obstacles means
+	// no bounds checks are needed
+	static int generateNeighbours(int[] n, int c, byte[] cells, int stride) {
+		int count = 0;
+		if(cells[c - 1] != 1) {
+			n[count++] = c - 1;
 		}
+		if(cells[c + 1] != 1) {
+			n[count++] = c + 1;
+		}
+		if(cells[c - stride] != 1) {
+			n[count++] = c - stride;
+		}
+		if(cells[c + stride] != 1) {
+			n[count++] = c + stride;
+		}
+		return count;
+	}
 
+	// Return the path from start to end (inclusive) by walking back along
+	// cameFrom, and report it to l if not null
+	private static int[] tracePath(int[] cameFrom, int start, int end, SearchListener l) {
+		int length = 0;
+		for(int p = end; p != start; p = cameFrom[p]) {
+			length++;
+		}
+		int[] path = new int[length + 1];
+		int i = length;
+		for(int p = end; p != start; p = cameFrom[p]) {
+			path[i--] = p;
+			if(l != null) {
+				l.onSolution(p);
+			}
+		}
+		path[0] = start;
 		return path;
 	}
 
-	// Find shortest path from Cell with value 2 to Cell with value 3 in g
-	// Implements the psuedo-code listed here https://en.wikipedia.org/wiki/A*_search_algorithm
+	/* A* SEARCH AND HELPER METHODS */
+
+	// Taxicab distance between (x1, y1) and (x2, y2)
+	private static int heuristic(int x1, int y1, int x2, int y2) {
+		return (Math.abs(x2 - x1) + Math.abs(y2 - y1));
+	}
+
+	// Find shortest path from Cell with value 2 to Cell with value 3 in g.
+	// If gui is null the search runs without marking or displaying anything
 	public static int AStar(Grid g, GridGUI gui, AlgorithmStats stats) {
+		return run(getEngine("A*"), g, gui, stats);
+	}
 
-		g.finaliseGrid();
+	// Find shortest path from start to end in s
+	// Implements the psuedo-code listed here https://en.wikipedia.org/wiki/A*_search_algorithm
+	public static PathResult AStar(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+		return aStar("A*", s, start, end, null, l, stats);
+	}
 
-		stats.startClock();
+	// Find shortest path from start to end in s with A*, taking the larger
+	// of the taxicab distance and the landmark bound (see LandmarkTable) as
+	// the heuristic. table must match s (see LandmarkTable.matches()). Both
+	// are consistent, so their maximum is too, and paths are as short as
+	// AStar()'s, but on maze-like grids far fewer cells are expanded
+	public static PathResult ALT(GridSnapshot s, int start, int end, LandmarkTable table, SearchListener l, AlgorithmStats stats) {
+		return aStar("ALT", s, start, end, table, l, stats);
+	}
 
-		int[][] matrix = g.asMatrix();
-		int x = g.getWidth();
-		int y = g.getHeight();
-		int maxValue = Integer.MAX_VALUE;
+	// Return an engine for ALT() with table, which makes a new table for
+	// any snapshot table doesn't match. table may be null
+	public static PathEngine getALTEngine(LandmarkTable table) {
+		return new TableEngine<LandmarkTable>(table) {
+			public String getName() {
+				return "ALT";
+			}
 
+			boolean matches(LandmarkTable t, GridSnapshot s) {
+				return t.matches(s);
+			}
 
-		int[] start = findX(matrix, x, y, 2);
-		int[] end = findX(matrix, x, y, 3);
-		int[] current = null;
-		int tentativeScore;
-		int iterations = 0;
+			LandmarkTable make(GridSnapshot s) {
+				return new LandmarkTable(s, LandmarkTable.DEFAULT_LANDMARKS);
+			}
 
-		// Initialise open set with start node
-		ArrayList<int[]> openSet = new ArrayList<int[]>();
-		openSet.add(start);
+			PathResult search(GridSnapshot s, int start, int end, LandmarkTable t, SearchListener l, AlgorithmStats stats) {
+				return ALT(s, start, end, t, l, stats);
+			}
+		};
+	}
 
-		// Declare list of neighbours of current
-		ArrayList <int[]> neighbours = new ArrayList<int[]>();
+	// Heuristic for n in aStar(): the taxicab distance to end, or the
+	// landmark bound if table isn't null and that is larger
+	private static int estimate(int n, int stride, int endX, int endY, LandmarkTable table, int[] toEnd) {
+		int h = heuristic(n % stride, n / stride, endX, endY);
+		if(table != null) {
+			h = Math.max(h, table.lowerBound(n, toEnd));
+		}
+		return h;
+	}
 
-		// Initialise table storing coordinates of predecessor for each node, to 0
-		int[][] cameFrom = new int[x][y];
+	private static PathResult aStar(String name, GridSnapshot s, int start, int end, LandmarkTable table, SearchListener l, AlgorithmStats stats) {
+		SearchEvent event = SearchEvent.start(name, s, start, end);
+		if(stats != null) {
+			stats.begin();
+		}
+		byte[] cells = s.getCells();
+		int stride = s.getStride();
+
+		// Offset by the border, but only differences are used
+		int endX = end % stride;
+		int endY = end / stride;
+		int current = -1;
+		int tentativeScore, n;
+		int iterations = 0;
+		int pushes = 1;
+		int decreaseKeys = 0;
+		int peakOpen = 1;
 
-		// Initialise all costs from start ("f-scores"), to 0
-		int[][] knownCosts = new int[x][y];
+		SearchWorkspace ws = SearchWorkspace.get(cells.length);
 
-		// Initialise all minimum costs to end ("g-scores"), to max
-		int[][] heuristicCosts = initMatrix(x, y, maxValue);
+		// Open set keyed by f-score. A cell is in the open set while it is in
+		// the heap, and in the closed set once it has been extracted
+		IntHeap openSet = ws.heap;
 
-		heuristicCosts[start[0]][start[1]] = heuristic(start[0], start[1], end[0], end[1]);
+		// Packed coordinates of neighbours of current
+		int[] neighbours = ws.neighbours;
+		int numNeighbours;
 
+		// Packed coordinates of predecessor for each cell, valid once a cell has been added to openSet
+		int[] cameFrom = ws.cameFrom;
 
-		stats.stopClock();
-		gui.instantUpdate();
-		stats.startClock();
+		// Cost of cheapest known path from start ("g-scores"), valid once a cell has been added to openSet
+		int[] knownCosts = ws.costs;
 
-		while(!(openSet.size() == 0)) {
-			stats.stopClock();
-			if(current != null) {
-				g.markUnselected(current[0], current[1]);
-				g.markVisited(current[0], current[1]);
-			}
-			stats.startClock();
-			// TODO (low priority): change data structures for better time complexity
-			current = findMinumum(heuristicCosts, openSet, maxValue);
+		// Distances from the landmarks to end, if table
+		int[] toEnd = (table == null) ? null : table.distancesTo(end);
 
-			stats.stopClock();
-			g.markUnopen(current[0], current[1]);
-			g.markSelected(current[0], current[1]);
-			gui.updateDisplay();
-			stats.startClock();
+		knownCosts[start] = 0;
+		openSet.add(start, estimate(start, stride, endX, endY, table, toEnd));
 
-			// Success condition
-			if((current[0] == end[0]) && (current[1] == end[1])) {
-				stats.stopClock();
-				stats.success = true;
-				stats.iterations = iterations;
+		if(stats != null) {
+			stats.endSetup();
+		}
+		if(l != null) {
+			l.onStart();
+		}
 
-				ArrayList<int[]> path = reconstructPath(cameFrom, start, current, x, y);
-				stats.pathLength = path.size();
-				for(int[] step : path) {
-					g.markSolution(step[0], step[1]);
-				}
-				gui.instantUpdate();
-				g.setFinalise(false);
+		while(!openSet.isEmpty()) {
+			current = openSet.extractMinimum();
 
-				return path.size();
-				// return reconstructPath(cameFrom, start, current);
+			if(l != null) {
+				l.onSelect(current);
 			}
 
-			openSet.remove(current);
-			// g.markUnopen(current[0], current[1]);
-
-			generateNeighbours(neighbours, current, matrix, x, y);
+			// Success condition
+			if(current == end) {
+				if(stats != null) {
+					stats.endSearch();
+				}
+				// The heuristic is consistent, so nothing is ever reopened
+				return finish(new PathResult(tracePath(cameFrom, start, current, l), stride, iterations), l, stats, event, pushes, decreaseKeys, 0, peakOpen);
+			}
 
-			for(int[] n : neighbours) {
+			numNeighbours = generateNeighbours(neighbours, current, cells, stride);
+			tentativeScore = knownCosts[current] + 1; // Assumes a distance of 1 to all neighbours -- doesn't generalise
 
-				tentativeScore = heuristicCosts[current[0]][current[1]] + 1; // Assumes a distance of 1 to all neighbours -- doesn't generalise
+			for(int k=0; k<numNeighbours; k++) {
+				n = neighbours[k];
 
-				// Found a better path to n: update
-				if(tentativeScore < heuristicCosts[n[0]][n[1]]) {
-					// In order to use a 2D rather than 3D array, the stored coordinate is packed into a single number. NOTE: may break on very large grids
-					cameFrom[n[0]][n[1]] = packCoords(current[0], current[1], x, y);
-					heuristicCosts[n[0]][n[1]] = tentativeScore;
-					knownCosts[n[0]][n[1]] = tentativeScore + heuristic(n[0], n[1], end[0], end[1]);
+				// The heuristic is consistent, so a closed cell already has
+				// its cheapest path and never needs reopening
+				if(openSet.wasRemoved(n)) {
+					continue;
+				}
 
-					// NOTE: may be able to use openSet.contains(), need to check behaivour
-					if(!(listContains(openSet, n))) {
-						openSet.add(n);
-						stats.stopClock();
-						g.markOpen(n[0], n[1]);
-						stats.startClock();
+				if(!openSet.wasAdded(n)) {
+					cameFrom[n] = current;
+					knownCosts[n] = tentativeScore;
+					openSet.add(n, tentativeScore + estimate(n, stride, endX, endY, table, toEnd));
+					pushes++;
+					peakOpen = Math.max(peakOpen, openSet.size());
+					if(l != null) {
+						l.onOpen(n);
 					}
-
+				} else if(tentativeScore < knownCosts[n]) {
+					// Found a better path to n: update
+					cameFrom[n] = current;
+					knownCosts[n] = tentativeScore;
+					openSet.decreaseKey(n, tentativeScore + estimate(n, stride, endX, endY, table, toEnd));
+					decreaseKeys++;
 				}
 
 			}
 			iterations++;
 		}
-		stats.stopClock();
-		stats.success = false;
-		stats.pathLength = -1;
-		stats.iterations = iterations;
-
-		g.setFinalise(false);
 
-		return -1;
+		if(stats != null) {
+			stats.endSearch();
+		}
+		return finish(new PathResult(null, stride, iterations), l, stats, event, pushes, decreaseKeys, 0, peakOpen);
 	}
 
 	/* END OF A* SEARCH AND HELPER METHODS */
 
 	/* DIJKSTRA'S ALGORITHM */
 
-	private static void generateDijkstraNeighbours(ArrayList<DijkstraContents> n, DijkstraContents c, int[][] m, DijkstraContents[][] contentList, int x, int y) {
+	private static void generateDijkstraNeighbours(ArrayList<DijkstraContents> n, DijkstraContents c, GridSnapshot s, DijkstraContents[] contentList) {
 		n.clear();
-		int cx = c.getX();
-		int cy = c.getY();
-		if((cx > 0) && (m[cx - 1][cy] != 1)) {
-			n.add(contentList[cx - 1][cy]);
+		byte[] cells = s.getCells();
+		int stride = s.getStride();
+		int p = s.index(c.getX(), c.getY());
+		if(cells[p - 1] != 1) {
+			n.add(contentList[p - 1]);
 		}
-		if((cx < (x - 1)) && (m[cx + 1][cy] != 1)) {
-			n.add(contentList[cx + 1][cy]);
+		if(cells[p + 1] != 1) {
+			n.add(contentList[p + 1]);
 		}
-		if((cy > 0) && (m[cx][cy - 1] != 1)) {
-			n.add(contentList[cx][cy - 1]);
+		if(cells[p - stride] != 1) {
+			n.add(contentList[p - stride]);
 		}
-		if((cy < (y - 1)) && (m[cx][cy + 1] != 1)) {
-			n.add(contentList[cx][cy + 1]);
+		if(cells[p + stride] != 1) {
+			n.add(contentList[p + stride]);
 		}
 	}
 
-	private static ArrayList<DijkstraContents> reconstructDijkstraPath(DijkstraContents start, DijkstraContents current) {
-		ArrayList<DijkstraContents> path = new ArrayList<DijkstraContents>();
+	// Return the indices of the cells from start to current (inclusive), and
+	// report them to l if not null
+	private static int[] reconstructDijkstraPath(GridSnapshot s, DijkstraContents start, DijkstraContents current, SearchListener l) {
+		ArrayList<DijkstraContents> steps = new ArrayList<DijkstraContents>();
 
 		while(!current.coordEquals(start)) {
-			path.add(current);
+			steps.add(current);
 			current = (DijkstraContents) current.getPrev();
 		}
+		steps.add(start);
 
+		int[] path = new int[steps.size()];
+		for(int i=0; i<path.length; i++) {
+			path[i] = s.index(steps.get(path.length - 1 - i).getX(), steps.get(path.length - 1 - i).getY());
+			if((l != null) && (i > 0)) {
+				l.onSolution(path[i]);
+			}
+		}
 		return path;
 	}
 
+	// Run Dijkstra's Algorithm using a FibonacciHeap as the priority queue
 	public static int Dijkstra(Grid g, GridGUI gui, AlgorithmStats stats) {
-		g.finaliseGrid();
-
-		stats.startClock();
+		return Dijkstra(g, gui, stats, new FibonacciHeap());
+	}
 
-		int[][] matrix = g.asMatrix();
-		int x = g.getWidth();
-		int y = g.getHeight();
-		int maxValue = Integer.MAX_VALUE;
+	// Run Dijkstra's Algorithm using q (which must be empty) as the priority
+	// queue. Every cell is added to q up front, as in the textbook algorithm;
+	// see LazyDijkstra() for the faster version
+	public static int Dijkstra(Grid g, GridGUI gui, AlgorithmStats stats, KeyValueQueue q) {
+		PathEngine engine = new PathEngine() {
+			public String getName() {
+				return "Dijkstra";
+			}
+			public PathResult findPath(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+				return Dijkstra(s, start, end, l, stats, q);
+			}
+		};
+		return run(engine, g, gui, stats);
+	}
 
+	// Find shortest path from start to end in s with Dijkstra's Algorithm,
+	// using q (which must be empty) as the priority queue
+	public static PathResult Dijkstra(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats, KeyValueQueue q) {
+		assert(q.isEmpty());
+		SearchEvent event = SearchEvent.start("Dijkstra", s, start, end);
+		if(stats != null) {
+			stats.begin();
+		}
 
-		int[] start = findX(matrix, x, y, 2);
-		int[] end = findX(matrix, x, y, 3);
-		int[] current = null;
+		int x = s.getWidth();
+		int y = s.getHeight();
+		int maxValue = Integer.MAX_VALUE;
 		int iterations = 0;
+		int decreaseKeys = 0;
 
-		FibonacciHeap q = new FibonacciHeap();
 		DijkstraContents c, startC, endC;
 		startC = null;
 		endC = null;
-		DijkstraContents[][] contentList = new DijkstraContents[x][y];
-		boolean[][] removedList = new boolean[x][y];
-		for(int j=0; j<x; j++) {
-			for(int i=0; i<y; i++) {
-				removedList[j][i] = false;
-			}
-		}
+		// Indexed like GridSnapshot.getCells()
+		DijkstraContents[] contentList = new DijkstraContents[s.getCells().length];
+		boolean[] removedList = new boolean[s.getCells().length];
 		ArrayList<DijkstraContents> neighbours = new ArrayList<DijkstraContents>();
-		// ArrayList<int[]> neighbours = new ArrayList<int[]>();
-		// int[] cCoord = new int[2];
 
-		for(int j=0; j<x; j++) {
-			for(int i=0; i<y; i++) {
-
-				if((j == start[0]) && (i == start[1])) {
+		int p;
+		for(int i=0; i<y; i++) {
+			for(int j=0; j<x; j++) {
+				p = s.index(j, i);
+				if(p == start) {
 					c = new DijkstraContents(0, null, j, i);
-					contentList[j][i] = c;
 					startC = c;
-					q.add(c);
-				} else if((j == end[0]) && (i == end[1])) {
-					c = new DijkstraContents(maxValue, null, j, i);
-					contentList[j][i] = c;
-					endC = c;
-					q.add(c);
 				} else {
 					c = new DijkstraContents(maxValue, null, j, i);
-					contentList[j][i] = c;
-					q.add(c);
 				}
+				if(p == end) {
+					endC = c;
+				}
+				contentList[p] = c;
+				q.add(c);
 			}
 		}
 
 		assert((startC != null) && (endC != null));
 
+		// Every cell is pushed once, up front
+		int pushes = x * y;
+
 		int alt;
 		c = null;
 
+		if(stats != null) {
+			stats.endSetup();
+		}
+		if(l != null) {
+			l.onStart();
+		}
+
 		while(!q.isEmpty()) {
 
-			stats.stopClock();
-			if(c != null) {
-				g.markUnselected(c.getX(), c.getY());
-				g.markVisited(c.getX(), c.getY());
-			}
-			stats.startClock();
+			c = (DijkstraContents) q.extractMinimum();
+			removedList[s.index(c.getX(), c.getY())] = true;
+
+			// Everything left in the queue is unreachable from the start
+			if(c.getKey() == maxValue) {
+				break;
+			}
+
+			if(l != null) {
+				l.onSelect(s.index(c.getX(), c.getY()));
+			}
+
+			if(c == endC) {
+				if(stats != null) {
+					stats.endSearch();
+				}
+				return finish(new PathResult(reconstructDijkstraPath(s, startC, c, l), s.getStride(), iterations), l, stats, event, pushes, decreaseKeys, 0, pushes);
+			}
+
+			generateDijkstraNeighbours(neighbours, c, s, contentList);
+
+			for(DijkstraContents d : neighbours) {
+				if(!(removedList[s.index(d.getX(), d.getY())])) {
+					alt = c.getKey() + 1;
+					if(alt < d.getKey()) {
+						q.decreaseKey(d, alt);
+						d.setPrev(c);
+						decreaseKeys++;
+					}
+				}
+			}
+			iterations++;
+		}
+
+		if(stats != null) {
+			stats.endSearch();
+		}
+		return finish(new PathResult(null, s.getStride(), iterations), l, stats, event, pushes, decreaseKeys, 0, pushes);
+	}
+
+	// Run Dijkstra's Algorithm, only adding cells to the queue as they are
+	// discovered rather than adding every cell up front, so that setup cost
+	// depends on the region explored instead of the size of the grid.
+	// If gui is null the search runs without marking or displaying anything
+	public static int LazyDijkstra(Grid g, GridGUI gui, AlgorithmStats stats) {
+		return run(getEngine("Dijkstra"), g, gui, stats);
+	}
+
+	// Find shortest path from start to end in s with LazyDijkstra() above.
+	// This is the "Dijkstra" engine, so it's recorded under that name
+	public static PathResult LazyDijkstra(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+		SearchEvent event = SearchEvent.start("Dijkstra", s, start, end);
+		if(stats != null) {
+			stats.begin();
+		}
+		byte[] cells = s.getCells();
+		int stride = s.getStride();
+		int iterations = 0;
+		int pushes = 1;
+		int decreaseKeys = 0;
+		int peakOpen = 1;
+
+		SearchWorkspace ws = SearchWorkspace.get(cells.length);
+
+		// Keyed by distance from start, which is final once a cell is extracted
+		IntHeap q = ws.heap;
+		int[] cameFrom = ws.cameFrom;
+		int[] neighbours = ws.neighbours;
+		int numNeighbours;
+		q.add(start, 0);
+
+		int c, d, alt;
+
+		if(stats != null) {
+			stats.endSetup();
+		}
+		if(l != null) {
+			l.onStart();
+		}
+
+		while(!q.isEmpty()) {
+
+			alt = q.findMinumumKey() + 1;
+			c = q.extractMinimum();
+
+			if(l != null) {
+				l.onSelect(c);
+			}
+
+			if(c == end) {
+				if(stats != null) {
+					stats.endSearch();
+				}
+				return finish(new PathResult(tracePath(cameFrom, start, c, l), stride, iterations), l, stats, event, pushes, decreaseKeys, 0, peakOpen);
+			}
+
+			// Cells already extracted have distance <= alt - 1, so they are never
+			// updated and don't need to be tracked separately
+			numNeighbours = generateNeighbours(neighbours, c, cells, stride);
+			for(int k=0; k<numNeighbours; k++) {
+				d = neighbours[k];
+				if(!q.wasAdded(d)) {
+					cameFrom[d] = c;
+					q.add(d, alt);
+					pushes++;
+					peakOpen = Math.max(peakOpen, q.size());
+					if(l != null) {
+						l.onOpen(d);
+					}
+				} else if(q.contains(d) && (alt < q.getKey(d))) {
+					cameFrom[d] = c;
+					q.decreaseKey(d, alt);
+					decreaseKeys++;
+				}
+			}
+			iterations++;
+		}
+
+		if(stats != null) {
+			stats.endSearch();
+		}
+		return finish(new PathResult(null, stride, iterations), l, stats, event, pushes, decreaseKeys, 0, peakOpen);
+	}
+
+	/* END OF DIJKSTRA'S ALGORITHM */
+
+	/* BREADTH-FIRST SEARCH */
+
+	// Find shortest path from Cell with value 2 to Cell with value 3 in g.
+	// Every edge of a Grid has weight 1, so the first time a cell is reached
+	// is along a shortest path and no priority queue is needed. Returns the
+	// same distance as Dijkstra(). If gui is null the search runs without
+	// marking or displaying anything
+	public static int BFS(Grid g, GridGUI gui, AlgorithmStats stats) {
+		return run(getEngine("BFS"), g, gui, stats);
+	}
+
+	// Find shortest path from start to end in s with BFS() above
+	public static PathResult BFS(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+		SearchEvent event = SearchEvent.start("BFS", s, start, end);
+		if(stats != null) {
+			stats.begin();
+		}
+		byte[] cells = s.getCells();
+		int stride = s.getStride();
+		int iterations = 0;
+		int pushes = 1;
+		int peakOpen = 1;
+
+		SearchWorkspace ws = SearchWorkspace.get(cells.length);
+
+		// Each cell is enqueued at most once, so the queue never overflows
+		IntRingBuffer queue = ws.queue;
+
+		// Packed coordinate of predecessor for each cell, valid once reached
+		int[] cameFrom = ws.cameFrom;
+		ws.markReached(start);
+		queue.add(start);
+
+		int[] neighbours = ws.neighbours;
+		int numNeighbours;
+		int c, n;
+
+		if(stats != null) {
+			stats.endSetup();
+		}
+		if(l != null) {
+			l.onStart();
+		}
+
+		while(!queue.isEmpty()) {
+			c = queue.remove();
+
+			if(l != null) {
+				l.onSelect(c);
+			}
+
+			if(c == end) {
+				if(stats != null) {
+					stats.endSearch();
+				}
+				// Cells are never updated once queued, so there are no decrease keys
+				return finish(new PathResult(tracePath(cameFrom, start, c, l), stride, iterations), l, stats, event, pushes, 0, 0, peakOpen);
+			}
+
+			numNeighbours = generateNeighbours(neighbours, c, cells, stride);
+			for(int k=0; k<numNeighbours; k++) {
+				n = neighbours[k];
+				if(!ws.isReached(n)) {
+					ws.markReached(n);
+					cameFrom[n] = c;
+					queue.add(n);
+					pushes++;
+					peakOpen = Math.max(peakOpen, queue.size());
+					if(l != null) {
+						l.onOpen(n);
+					}
+				}
+			}
+			iterations++;
+		}
+
+		if(stats != null) {
+			stats.endSearch();
+		}
+		return finish(new PathResult(null, stride, iterations), l, stats, event, pushes, 0, 0, peakOpen);
+	}
+
+	/* END OF BREADTH-FIRST SEARCH */
+
+	/* JUMP POINT SEARCH */
+
+	// Jump point search (Harabor and Grastien), for grids where every move
+	// is to a vertically or horizontally touching cell and costs 1. Open
+	// areas have many shortest paths between two cells, differing only in
+	// the order of their moves, and A* expands the cells of all of them.
+	// JPS keeps to paths which only turn where they have to, and only
+	// expands the cells where they turn ("jump points"), which it finds by
+	// scanning in straight lines from the cell being expanded:
+	//  - Scanning horizontally stops at a cell with an open cell above or
+	//    below it which is blocked behind it, since a path may have to turn
+	//    there to reach it
+	//  - Scanning vertically stops at a cell with such a cell to its left or
+	//    right, or from which a horizontal scan stops at a jump point
+	// Either stops at end, and finds nothing at an obstacle. Jump points are
+	// expanded in every direction but back the way they were reached, so the
+	// search is A* over jump points, with straight moves between them, and
+	// finds paths of the same length as AStar(). Scanning can cost as much as
+	// expanding, since a vertical scan scans horizontally from every cell,
+	// but JPSPlus() looks the jump points up instead, see JumpTable
+
+	// Find shortest path from Cell with value 2 to Cell with value 3 in g.
+	// If gui is null the search runs without marking or displaying anything
+	public static int JPS(Grid g, GridGUI gui, AlgorithmStats stats) {
+		return run(getEngine("JPS"), g, gui, stats);
+	}
+
+	// Find shortest path from start to end in s with JPS() above
+	public static PathResult JPS(GridSnapshot s, int start, int end, SearchListener l, AlgorithmStats stats) {
+		return jumpPointSearch("JPS", s, start, end, null, l, stats);
+	}
+
+	// Find shortest path from start to end in s with JPS() above, looking
+	// jump points up in table, which must match s (see JumpTable.matches())
+	public static PathResult JPSPlus(GridSnapshot s, int start, int end, JumpTable table, SearchListener l, AlgorithmStats stats) {
+		return jumpPointSearch("JPS+", s, start, end, table, l, stats);
+	}
+
+	// Return an engine for JPSPlus() with table, which makes a new table for
+	// any snapshot table doesn't match. table may be null
+	public static PathEngine getJPSPlusEngine(JumpTable table) {
+		return new TableEngine<JumpTable>(table) {
+			public String getName() {
+				return "JPS+";
+			}
+
+			boolean matches(JumpTable t, GridSnapshot s) {
+				return t.matches(s);
+			}
+
+			JumpTable make(GridSnapshot s) {
+				return new JumpTable(s);
+			}
+
+			PathResult search(GridSnapshot s, int start, int end, JumpTable t, SearchListener l, AlgorithmStats stats) {
+				return JPSPlus(s, start, end, t, l, stats);
+			}
+		};
+	}
+
+	// The first jump point from c in direction d (1 or -1) along its row,
+	// or end if it comes first, or -1 if an obstacle does
+	static int jumpHorizontal(byte[] cells, int stride, int c, int d, int end) {
+		for(int n = c + d; cells[n] != 1; n += d) {
+			if(n == end) {
+				return n;
+			}
+			if(((cells[n - stride] != 1) && (cells[n - stride - d] == 1)) || ((cells[n + stride] != 1) && (cells[n + stride - d] == 1))) {
+				return n;
+			}
+		}
+		return -1;
+	}
+
+	// The first jump point from c in direction d (stride or -stride) along
+	// its column, or end if it comes first, or -1 if an obstacle does
+	static int jumpVertical(byte[] cells, int stride, int c, int d, int end) {
+		for(int n = c + d; cells[n] != 1; n += d) {
+			if(n == end) {
+				return n;
+			}
+			if(((cells[n - 1] != 1) && (cells[n - 1 - d] == 1)) || ((cells[n + 1] != 1) && (cells[n + 1 - d] == 1))) {
+				return n;
+			}
+			if((jumpHorizontal(cells, stride, n, 1, end) != -1) || (jumpHorizontal(cells, stride, n, -1, end) != -1)) {
+				return n;
+			}
+		}
+		return -1;
+	}
+
+	// Move from a to b, which are in line: 1 or -1 along a row, stride or
+	// -stride along a column, 0 if they're the same cell
+	private static int unitStep(int a, int b, int stride) {
+		int d = b - a;
+		if(d == 0) {
+			return 0;
+		}
+		if(d % stride == 0) {
+			return (d > 0) ? stride : -stride;
+		}
+		return (d > 0) ? 1 : -1;
+	}
+
+	// Key of a jump point in the open set of jumpPointSearch()
+	private static int jumpKey(int g, int h, int fCap, int ties) {
+		return (Math.min(g + h, fCap) * ties) + Math.min(h, ties - 1);
+	}
+
+	private static PathResult jumpPointSearch(String name, GridSnapshot s, int start, int end, JumpTable table, SearchListener l, AlgorithmStats stats) {
+		SearchEvent event = SearchEvent.start(name, s, start, end);
+		if(stats != null) {
+			stats.begin();
+		}
+		byte[] cells = s.getCells();
+		int stride = s.getStride();
+
+		int endX = end % stride;
+		int endY = end / stride;
+		int current, n, d, back, tentativeScore;
+		int iterations = 0;
+		int pushes = 1;
+		int decreaseKeys = 0;
+		int peakOpen = 1;
+
+		// Jump points often have equal f-scores across open areas, and
+		// expanding those nearest end first saves expanding the rest, so
+		// keys are f-scores times ties, plus h-scores. f-scores are capped
+		// at fCap, which is more than any path's length, so only jump points
+		// which can't be on a path are affected, and ties is as big as it
+		// can be without keys overflowing (enough for any h-score unless
+		// the grid has over a million cells)
+		int fCap = cells.length;
+		int ties = (int) Math.max(1, Math.min(s.getWidth() + s.getHeight() + 1, Integer.MAX_VALUE / ((long) fCap + 1)));
+
+		SearchWorkspace ws = SearchWorkspace.get(cells.length);
+
+		// Open set of jump points, see above
+		IntHeap openSet = ws.heap;
+
+		// Jump point each one was reached from, the start from itself
+		int[] cameFrom = ws.cameFrom;
+
+		int[] knownCosts = ws.costs;
+
+		cameFrom[start] = start;
+		knownCosts[start] = 0;
+		openSet.add(start, jumpKey(0, heuristic(start % stride, start / stride, endX, endY), fCap, ties));
+
+		if(stats != null) {
+			stats.endSetup();
+		}
+		if(l != null) {
+			l.onStart();
+		}
+
+		while(!openSet.isEmpty()) {
+			current = openSet.extractMinimum();
+
+			if(l != null) {
+				l.onSelect(current);
+			}
+
+			if(current == end) {
+				if(stats != null) {
+					stats.endSearch();
+				}
+				return finish(new PathResult(traceJumpPath(cameFrom, start, current, stride, l), stride, iterations), l, stats, event, pushes, decreaseKeys, 0, peakOpen);
+			}
+
+			back = -unitStep(cameFrom[current], current, stride);
+			for(int k=0; k<4; k++) {
+				d = (k == JumpTable.EAST) ? 1 : ((k == JumpTable.WEST) ? -1 : ((k == JumpTable.SOUTH) ? stride : -stride));
+				if(d == back) {
+					continue;
+				}
+				if(table != null) {
+					n = table.jump(current, k, end);
+				} else if((k == JumpTable.EAST) || (k == JumpTable.WEST)) {
+					n = jumpHorizontal(cells, stride, current, d, end);
+				} else {
+					n = jumpVertical(cells, stride, current, d, end);
+				}
+
+				// The taxicab distance is consistent here too, since jumps
+				// are straight, so closed jump points never need reopening
+				if((n == -1) || openSet.wasRemoved(n)) {
+					continue;
+				}
+
+				tentativeScore = knownCosts[current] + ((n - current) / d);
+				if(!openSet.wasAdded(n)) {
+					cameFrom[n] = current;
+					knownCosts[n] = tentativeScore;
+					openSet.add(n, jumpKey(tentativeScore, heuristic(n % stride, n / stride, endX, endY), fCap, ties));
+					pushes++;
+					peakOpen = Math.max(peakOpen, openSet.size());
+					if(l != null) {
+						l.onOpen(n);
+					}
+				} else if(tentativeScore < knownCosts[n]) {
+					cameFrom[n] = current;
+					knownCosts[n] = tentativeScore;
+					openSet.decreaseKey(n, jumpKey(tentativeScore, heuristic(n % stride, n / stride, endX, endY), fCap, ties));
+					decreaseKeys++;
+				}
+			}
+			iterations++;
+		}
+
+		if(stats != null) {
+			stats.endSearch();
+		}
+		return finish(new PathResult(null, stride, iterations), l, stats, event, pushes, decreaseKeys, 0, peakOpen);
+	}
+
+	// Return the path from start to end (inclusive) through the jump points
+	// in cameFrom, filling in the cells between them, and report it to l if
+	// not null
+	private static int[] traceJumpPath(int[] cameFrom, int start, int end, int stride, SearchListener l) {
+		int length = 0;
+		for(int p = end; p != start; p = cameFrom[p]) {
+			length += (p - cameFrom[p]) / unitStep(cameFrom[p], p, stride);
+		}
+		int[] path = new int[length + 1];
+		int i = length;
+		for(int p = end; p != start; p = cameFrom[p]) {
+			int d = unitStep(cameFrom[p], p, stride);
+			for(int c = p; c != cameFrom[p]; c -= d) {
+				path[i--] = c;
+				if(l != null) {
+					l.onSolution(c);
+				}
+			}
+		}
+		path[0] = start;
+		return path;
+	}
+
+	/* END OF JUMP POINT SEARCH */
+
+	/* BIDIRECTIONAL SEARCH */
+
+	// Bidirectional A* and Dijkstra search forward from start and backward
+	// from end at once, each expanding whichever direction has the smaller
+	// open set, and meet in the middle. Each cell reached from both ends
+	// gives a path, and the search stops once no path shorter than the best
+	// of those (mu) can be found. On open ground each direction explores a
+	// region half as far across as one direction alone would have to, so
+	// together they expand about half as many cells.
+	// For A*, each direction's f-scores have to agree with the other's for
+	// that stopping test to be safe, so both use the average of the taxicab
+	// distances to the two ends (Ikeda et al.): forward keys are
+	// 2g + h(v, end) - h(v, start) and backward keys 2g + h(v, start) - h(v, end),
+	// doubled to stay whole. These are consistent, so no cell is reopened,
+	// and the search can stop once the smallest key in each direction add up
+	// to 2 mu or more. Dijkstra is the same with keys of 2g.
+	// With threads, the backward direction runs in the common ForkJoinPool
+	// while the forward one runs on the calling thread, see Frontier.
+	// Listeners are then called from both threads, one at a time
+
+	// Find shortest path from Cell with value 2 to Cell with value 3 in g.
+	// If gui is null the search runs without marking or displaying anything
+	public static int BidirectionalAStar(Grid g, GridGUI gui, AlgorithmStats stats) {
+		return run(getEngine("BiA*"), g, gui, stats);
+	}
+
+	// Find shortest path from start to end in s with BidirectionalAStar()
+	// above, with each direction on its own thread if threads
+	public static PathResult BidirectionalAStar(GridSnapshot s, int start, int end, boolean threads, SearchListener l, AlgorithmStats stats) {
+		return bidirectional(threads ? "BiA*-parallel" : "BiA*", s, start, end, true, threads, l, stats);
+	}
+
+	// As BidirectionalAStar(), without the heuristic
+	public static PathResult BidirectionalDijkstra(GridSnapshot s, int start, int end, boolean threads, SearchListener l, AlgorithmStats stats) {
+		return bidirectional(threads ? "BiDijkstra-parallel" : "BiDijkstra", s, start, end, false, threads, l, stats);
+	}
+
+	private static PathResult bidirectional(String name, GridSnapshot s, int start, int end, boolean heuristic, boolean threads, SearchListener l, AlgorithmStats stats) {
+		SearchEvent event = SearchEvent.start(name, s, start, end);
+		if(stats != null) {
+			stats.begin();
+		}
+		int stride = s.getStride();
+
+		SearchWorkspace ws = SearchWorkspace.get(s.getCells().length);
+		java.util.concurrent.atomic.AtomicLong best = new java.util.concurrent.atomic.AtomicLong(Frontier.NONE);
+		java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean(false);
+		Frontier forward = new Frontier(s, start, end, heuristic, threads, ws, best, done, l);
+		Frontier backward = new Frontier(s, end, start, heuristic, threads, ws.getReverse(), best, done, l);
+		forward.setOther(backward);
+		backward.setOther(forward);
+		if(start == end) {
+			best.set(Frontier.pack(0, start));
+		}
+
+		if(stats != null) {
+			stats.endSetup();
+		}
+		if(l != null) {
+			l.onStart();
+		}
+
+		if(threads) {
+			ForkJoinPool.commonPool().execute(backward);
+			forward.run();
+			backward.cancelOrJoin();
+		} else {
+			while(!done.get()) {
+				Frontier f = (forward.size() <= backward.size()) ? forward : backward;
+				if(!f.step() || f.canStop()) {
+					done.set(true);
+				}
+			}
+		}
+
+		if(stats != null) {
+			stats.endSearch();
+		}
+		long b = best.get();
+		int[] path = (b == Frontier.NONE) ? null : traceMeetingPath(forward.getCameFrom(), backward.getCameFrom(), start, end, Frontier.cell(b), l);
+		return finish(new PathResult(path, stride, forward.expansions + backward.expansions), l, stats, event, forward.pushes + backward.pushes, forward.decreaseKeys + backward.decreaseKeys, 0, forward.peakOpen + backward.peakOpen);
+	}
+
+	// Return the path from start to meet along forwardFrom, then on to end
+	// along backwardFrom, and report it to l if not null
+	private static int[] traceMeetingPath(int[] forwardFrom, int[] backwardFrom, int start, int end, int meet, SearchListener l) {
+		int before = 0;
+		for(int p = meet; p != start; p = forwardFrom[p]) {
+			before++;
+		}
+		int after = 0;
+		for(int p = meet; p != end; p = backwardFrom[p]) {
+			after++;
+		}
+		int[] path = new int[before + after + 1];
+		int i = before;
+		for(int p = meet; p != start; p = forwardFrom[p]) {
+			path[i--] = p;
+		}
+		path[0] = start;
+		i = before;
+		for(int p = meet; p != end; p = backwardFrom[p]) {
+			path[++i] = backwardFrom[p];
+		}
+		if(l != null) {
+			for(i=path.length-1; i>0; i--) {
+				l.onSolution(path[i]);
+			}
+		}
+		return path;
+	}
+
+	/* END OF BIDIRECTIONAL SEARCH */
+
+	/* HIERARCHICAL PATHFINDING */
+
+	// HPA* (Botea, Muller and Schaeffer) searches the abstract graph of a
+	// ClusterHierarchy rather than the grid: start and end are joined to the
+	// nodes of their clusters (and each other, if they share one) by a
+	// breadth-first search of the cluster, then A* with the taxicab distance
+	// finds a path over the nodes, and each edge of it inside a cluster is
+	// filled in with another search of the cluster. The graph has a few nodes
+	// per cluster, so queries on huge grids expand far fewer cells than
+	// AStar(), but paths have to pass through the nodes, so they can be a
+	// little longer than the shortest path. A path is found whenever one
+	// exists, since every cell of an entrance can reach its nodes.
+	// Queries on one hierarchy run one at a time
+
+	// Find a path from Cell with value 2 to Cell with value 3 in g, using h,
+	// which is brought up to date with g first. If gui is null the search
+	// runs without marking or displaying anything
+	public static int HPA(Grid g, ClusterHierarchy h, GridGUI gui, AlgorithmStats stats) {
+		return run(getHPAEngine(h), g, gui, stats);
+	}
+
+	// Return an engine for HPA() with hierarchy, which makes a new hierarchy
+	// for any snapshot it doesn't fit. hierarchy may be null
+	public static PathEngine getHPAEngine(ClusterHierarchy hierarchy) {
+		return new TableEngine<ClusterHierarchy>(hierarchy) {
+			public String getName() {
+				return "HPA*";
+			}
+
+			boolean matches(ClusterHierarchy h, GridSnapshot s) {
+				return h.fits(s);
+			}
+
+			ClusterHierarchy make(GridSnapshot s) {
+				return new ClusterHierarchy(s, ClusterHierarchy.DEFAULT_SIZE);
+			}
+
+			PathResult search(GridSnapshot s, int start, int end, ClusterHierarchy h, SearchListener l, AlgorithmStats stats) {
+				return HPA(s, start, end, h, l, stats);
+			}
+		};
+	}
+
+	// Find a path from start to end in s with HPA() above. h must fit s (see
+	// ClusterHierarchy.fits()), and the clusters which have changed are
+	// worked out again during setup
+	public static PathResult HPA(GridSnapshot s, int start, int end, ClusterHierarchy h, SearchListener l, AlgorithmStats stats) {
+		SearchEvent event = SearchEvent.start("HPA*", s, start, end);
+		if(stats != null) {
+			stats.begin();
+		}
+		synchronized(h) {
+			h.refresh(s);
+			h.takeLocalExpansions();
+			byte[] cells = s.getCells();
+			int stride = s.getStride();
+			int endX = end % stride;
+			int endY = end / stride;
+			int endCluster = h.cluster(end);
+			int[] across = {-1, 1, -stride, stride};
+			int iterations = 0;
+			int pushes = 1;
+			int decreaseKeys = 0;
+			int peakOpen = 1;
+
+			// Nodes on open ground have equal f-scores, so ties go to the node
+			// nearest end, as in jumpPointSearch()
+			int fCap = cells.length;
+			int ties = (int) Math.max(1, Math.min(s.getWidth() + s.getHeight() + 1, Integer.MAX_VALUE / ((long) fCap + 1)));
+
+			SearchWorkspace ws = SearchWorkspace.get(cells.length);
+			IntHeap openSet = ws.heap;
+			int[] cameFrom = ws.cameFrom;
+			int[] knownCosts = ws.costs;
+
+			// Edges from start and to end, see ClusterHierarchy.connect()
+			int[] startEdges = h.connect(start, end);
+			int[] endEdges = h.connect(end, start);
+
+			// Edges of the node being expanded: a cluster has at most
+			// 4 * size nodes, then there's end and the nodes across borders
+			int[] edgeTo = new int[(4 * h.getSize()) + 5];
+			int[] edgeLength = new int[edgeTo.length];
+
+			knownCosts[start] = 0;
+			openSet.add(start, jumpKey(0, heuristic(start % stride, start / stride, endX, endY), fCap, ties));
+
+			if(stats != null) {
+				stats.endSetup();
+			}
+			if(l != null) {
+				l.onStart();
+			}
+
+			int current, n, tentativeScore;
+			while(!openSet.isEmpty()) {
+				current = openSet.extractMinimum();
+
+				if(l != null) {
+					l.onSelect(current);
+				}
+
+				if(current == end) {
+					if(stats != null) {
+						stats.endSearch();
+					}
+					int[] path = refinePath(h, cameFrom, knownCosts[end], start, end, l);
+					return finish(new PathResult(path, stride, iterations + h.takeLocalExpansions()), l, stats, event, pushes, decreaseKeys, 0, peakOpen);
+				}
+
+				// Edges inside the cluster
+				int k = h.cluster(current);
+				int[] nodes = h.getNodes(k);
+				int slot = h.getSlot(current);
+				int numEdges = 0;
+				for(int i=0; i<nodes.length; i++) {
+					edgeTo[numEdges] = nodes[i];
+					edgeLength[numEdges++] = (current == start) ? startEdges[i] : h.getDistance(k, slot, i);
+				}
+				if(k == endCluster) {
+					edgeTo[numEdges] = end;
+					edgeLength[numEdges++] = (current == start) ? startEdges[nodes.length] : endEdges[slot];
+				}
+				// Edges across the borders
+				if(slot != -1) {
+					for(int d : across) {
+						n = current + d;
+						if((cells[n] != 1) && (h.getSlot(n) != -1) && (h.cluster(n) != k)) {
+							edgeTo[numEdges] = n;
+							edgeLength[numEdges++] = 1;
+						}
+					}
+				}
+
+				for(int e=0; e<numEdges; e++) {
+					n = edgeTo[e];
+					if((edgeLength[e] == ClusterHierarchy.UNREACHABLE) || (n == current) || openSet.wasRemoved(n)) {
+						continue;
+					}
+					// Every edge is at least as long as the taxicab distance
+					// between its ends, so closed nodes never need reopening
+					tentativeScore = knownCosts[current] + edgeLength[e];
+					if(!openSet.wasAdded(n)) {
+						cameFrom[n] = current;
+						knownCosts[n] = tentativeScore;
+						openSet.add(n, jumpKey(tentativeScore, heuristic(n % stride, n / stride, endX, endY), fCap, ties));
+						pushes++;
+						peakOpen = Math.max(peakOpen, openSet.size());
+						if(l != null) {
+							l.onOpen(n);
+						}
+					} else if(tentativeScore < knownCosts[n]) {
+						cameFrom[n] = current;
+						knownCosts[n] = tentativeScore;
+						openSet.decreaseKey(n, jumpKey(tentativeScore, heuristic(n % stride, n / stride, endX, endY), fCap, ties));
+						decreaseKeys++;
+					}
+				}
+				iterations++;
+			}
+
+			if(stats != null) {
+				stats.endSearch();
+			}
+			return finish(new PathResult(null, stride, iterations + h.takeLocalExpansions()), l, stats, event, pushes, decreaseKeys, 0, peakOpen);
+		}
+	}
+
+	// Return the path of length cells from start to end (inclusive) through
+	// the nodes in cameFrom, filling in the steps inside each cluster, and
+	// report it to l if not null
+	private static int[] refinePath(ClusterHierarchy h, int[] cameFrom, int length, int start, int end, SearchListener l) {
+		int count = 1;
+		for(int p = end; p != start; p = cameFrom[p]) {
+			count++;
+		}
+		int[] nodes = new int[count];
+		int i = count - 1;
+		for(int p = end; p != start; p = cameFrom[p]) {
+			nodes[i--] = p;
+		}
+		nodes[0] = start;
+
+		int[] path = new int[length + 1];
+		path[0] = start;
+		int j = 1;
+		for(i=1; i<count; i++) {
+			if(h.cluster(nodes[i - 1]) == h.cluster(nodes[i])) {
+				j = h.fillPath(nodes[i - 1], nodes[i], path, j);
+			} else {
+				path[j++] = nodes[i]; // Across a border
+			}
+		}
+		assert(j == path.length);
+		if(l != null) {
+			for(i=path.length-1; i>0; i--) {
+				l.onSolution(path[i]);
+			}
+		}
+		return path;
+	}
+
+	/* END OF HIERARCHICAL PATHFINDING */
+
+	/* CONTRACTION HIERARCHY QUERIES */
+
+	// Searches of a ContractionHierarchy go up from start and up from end,
+	// Dijkstra in each, taking turns by which has the smaller key. Each
+	// node settled by one direction which the other has reached gives a
+	// path through it, and the search stops once neither direction has a
+	// key below the shortest of those. Shortest paths go up then down the
+	// hierarchy, so the node at the top of one is settled by both, and the
+	// lengths are exactly those of Dijkstra(). Few nodes are settled, but
+	// each stands for a cell, as do the cells of the unpacked path
+
+	// Find shortest path from Cell with value 2 to Cell with value 3 in g,
+	// with h, which must match g (see ContractionHierarchy.matches()). If
+	// gui is null the search runs without marking or displaying anything
+	public static int CH(Grid g, ContractionHierarchy h, GridGUI gui, AlgorithmStats stats) {
+		return run(getCHEngine(h), g, gui, stats);
+	}
+
+	// Return an engine for CH() with hierarchy, which makes a new hierarchy
+	// for any snapshot it doesn't match. hierarchy may be null
+	public static PathEngine getCHEngine(ContractionHierarchy hierarchy) {
+		return new TableEngine<ContractionHierarchy>(hierarchy) {
+			public String getName() {
+				return "CH";
+			}
+
+			boolean matches(ContractionHierarchy h, GridSnapshot s) {
+				return h.matches(s);
+			}
+
+			ContractionHierarchy make(GridSnapshot s) {
+				return new ContractionHierarchy(s);
+			}
+
+			PathResult search(GridSnapshot s, int start, int end, ContractionHierarchy h, SearchListener l, AlgorithmStats stats) {
+				return CH(s, start, end, h, l, stats);
+			}
+		};
+	}
+
+	// Find shortest path from start to end in s with CH() above. h must
+	// match s
+	public static PathResult CH(GridSnapshot s, int start, int end, ContractionHierarchy h, SearchListener l, AlgorithmStats stats) {
+		SearchEvent event = SearchEvent.start("CH", s, start, end);
+		if(stats != null) {
+			stats.begin();
+		}
+		int stride = s.getStride();
+		int iterations = 0;
+		int pushes = 2;
+		int decreaseKeys = 0;
+		int peakOpen = 2;
+
+		// Keyed by node rather than cell
+		SearchWorkspace ws = SearchWorkspace.get(s.getCells().length);
+		SearchWorkspace reverse = ws.getReverse();
+		IntHeap forward = ws.heap;
+		IntHeap backward = reverse.heap;
+		int[] forwardCosts = ws.costs; // Valid where the heap wasAdded()
+		int[] backwardCosts = reverse.costs;
+		int[] forwardFrom = ws.cameFrom;
+		int[] backwardFrom = reverse.cameFrom;
+
+		int source = h.getNode(start);
+		int target = h.getNode(end);
+		forward.add(source, 0);
+		forwardCosts[source] = 0;
+		backward.add(target, 0);
+		backwardCosts[target] = 0;
+		int best = Integer.MAX_VALUE;
+		int meet = -1;
+
+		if(stats != null) {
+			stats.endSetup();
+		}
+		if(l != null) {
+			l.onStart();
+		}
+
+		while(true) {
+			int f = forward.isEmpty() ? Integer.MAX_VALUE : forward.findMinumumKey();
+			int b = backward.isEmpty() ? Integer.MAX_VALUE : backward.findMinumumKey();
+			if(Math.min(f, b) >= best) {
+				break;
+			}
+			boolean isForward = (f <= b);
+			IntHeap q = isForward ? forward : backward;
+			int[] costs = isForward ? forwardCosts : backwardCosts;
+			int[] from = isForward ? forwardFrom : backwardFrom;
+			IntHeap other = isForward ? backward : forward;
+			int[] otherCosts = isForward ? backwardCosts : forwardCosts;
+
+			int v = q.extractMinimum();
+			if(l != null) {
+				l.onSelect(h.getCell(v));
+			}
+			if(other.wasAdded(v) && (costs[v] + otherCosts[v] < best)) {
+				best = costs[v] + otherCosts[v];
+				meet = v;
+			}
+			for(int e=h.getFirstEdge(v); e<h.getEndEdge(v); e++) {
+				int n = h.getTarget(e);
+				int g = costs[v] + h.getLength(e);
+				if(!q.wasAdded(n)) {
+					from[n] = v;
+					costs[n] = g;
+					q.add(n, g);
+					pushes++;
+					peakOpen = Math.max(peakOpen, forward.size() + backward.size());
+					if(l != null) {
+						l.onOpen(h.getCell(n));
+					}
+				} else if(q.contains(n) && (g < costs[n])) {
+					from[n] = v;
+					costs[n] = g;
+					q.decreaseKey(n, g);
+					decreaseKeys++;
+				}
+			}
+			iterations++;
+		}
+
+		if(stats != null) {
+			stats.endSearch();
+		}
+		int[] path = (meet == -1) ? null : unpackPath(h, forwardFrom, backwardFrom, source, target, meet, best, l);
+		return finish(new PathResult(path, stride, iterations), l, stats, event, pushes, decreaseKeys, 0, peakOpen);
+	}
+
+	// Return the cells of the path of the given length from source up to
+	// meet along forwardFrom, then down to target along backwardFrom, with
+	// shortcuts unpacked, and report it to l if not null
+	private static int[] unpackPath(ContractionHierarchy h, int[] forwardFrom, int[] backwardFrom, int source, int target, int meet, int length, SearchListener l) {
+		int before = 0;
+		for(int v = meet; v != source; v = forwardFrom[v]) {
+			before++;
+		}
+		int after = 0;
+		for(int v = meet; v != target; v = backwardFrom[v]) {
+			after++;
+		}
+		int[] nodes = new int[before + after + 1];
+		int i = before;
+		for(int v = meet; v != source; v = forwardFrom[v]) {
+			nodes[i--] = v;
+		}
+		nodes[0] = source;
+		i = before;
+		for(int v = meet; v != target; v = backwardFrom[v]) {
+			nodes[++i] = backwardFrom[v];
+		}
+
+		int[] path = new int[length + 1];
+		path[0] = h.getCell(source);
+		int j = 1;
+		for(i=1; i<nodes.length; i++) {
+			j = h.unpack(nodes[i - 1], nodes[i], path, j);
+		}
+		assert(j == path.length);
+		if(l != null) {
+			for(i=path.length-1; i>0; i--) {
+				l.onSolution(path[i]);
+			}
+		}
+		return path;
+	}
+
+	/* END OF CONTRACTION HIERARCHY QUERIES */
+
+}
+
+// Jump points for JPS+ (Harabor and Grastien), so that Algorithms.JPSPlus()
+// can find the next jump point in a direction (see Algorithms.JPS()) with
+// one lookup instead of scanning. For each cell and direction it holds the
+// distance to the next jump point, or if there's none before an obstacle,
+// minus the number of moves which can be made before it. Rows are worked
+// out first, since vertical jump points depend on horizontal ones, then
+// columns, each in parallel. Tables only depend on which cells are
+// OBSTACLEs, so one can be saved with save() next to its grid, and loaded
+// to search any snapshot of the grid whose OBSTACLEs still match
+class JumpTable {
+	public static final int MAGIC = 0x50464a50; // "PFJP"
+	public static final int VERSION = 1;
+	public static final int EAST = 0; // Directions
+	public static final int WEST = 1;
+	public static final int SOUTH = 2;
+	public static final int NORTH = 3;
+
+	private int width;
+	private int height;
+	private int stride;
+	private long checksum; // Of the OBSTACLEs, see checksum()
+	private int[] distances; // 4 per cell, indexed as GridSnapshot cells
+	private byte[] matched; // Cells of the last snapshot found to match
+
+	public JumpTable(GridSnapshot s) {
+		width = s.getWidth();
+		height = s.getHeight();
+		stride = s.getStride();
+		checksum = checksum(s);
+		byte[] cells = s.getCells();
+		distances = new int[4 * cells.length];
+		java.util.stream.IntStream.range(0, height).parallel().forEach(new java.util.function.IntConsumer() {
+			public void accept(int y) {
+				for(int c=s.index(width - 1, y); c>=s.index(0, y); c--) {
+					set(cells, c, EAST, 1, isHorizontalJumpPoint(cells, c + 1, 1));
+				}
+				for(int c=s.index(0, y); c<=s.index(width - 1, y); c++) {
+					set(cells, c, WEST, -1, isHorizontalJumpPoint(cells, c - 1, -1));
+				}
+			}
+		});
+		java.util.stream.IntStream.range(0, width).parallel().forEach(new java.util.function.IntConsumer() {
+			public void accept(int x) {
+				for(int c=s.index(x, height - 1); c>=s.index(x, 0); c-=stride) {
+					set(cells, c, SOUTH, stride, isVerticalJumpPoint(cells, c + stride, stride));
+				}
+				for(int c=s.index(x, 0); c<=s.index(x, height - 1); c+=stride) {
+					set(cells, c, NORTH, -stride, isVerticalJumpPoint(cells, c - stride, -stride));
+				}
+			}
+		});
+		matched = cells;
+	}
+
+	private JumpTable(int width, int height, long checksum, int[] distances) {
+		this.width = width;
+		this.height = height;
+		this.stride = width + 2;
+		this.checksum = checksum;
+		this.distances = distances;
+		matched = null;
+	}
+
+	// See Algorithms.jumpHorizontal()
+	private boolean isHorizontalJumpPoint(byte[] cells, int n, int d) {
+		return ((cells[n - stride] != 1) && (cells[n - stride - d] == 1)) || ((cells[n + stride] != 1) && (cells[n + stride - d] == 1));
+	}
+
+	// See Algorithms.jumpVertical(). Needs the EAST and WEST distances of n
+	private boolean isVerticalJumpPoint(byte[] cells, int n, int d) {
+		return ((cells[n - 1] != 1) && (cells[n - 1 - d] == 1)) || ((cells[n + 1] != 1) && (cells[n + 1 - d] == 1)) || (distances[(4 * n) + EAST] > 0) || (distances[(4 * n) + WEST] > 0);
+	}
+
+	// Set the distance from c in direction k, moving d at a time, given the
+	// distance from the next cell, whether or not that is a jump point
+	private void set(byte[] cells, int c, int k, int d, boolean nextIsJumpPoint) {
+		int n = c + d;
+		if((cells[c] == 1) || (cells[n] == 1)) {
+			distances[(4 * c) + k] = 0;
+		} else if(nextIsJumpPoint) {
+			distances[(4 * c) + k] = 1;
+		} else {
+			int next = distances[(4 * n) + k];
+			distances[(4 * c) + k] = (next > 0) ? (next + 1) : (next - 1);
+		}
+	}
+
+	// Return the first jump point from c in direction k, or -1 if there's
+	// none before an obstacle. If end is in line and comes first, return end
+	// when moving horizontally, or the cell in end's row when moving
+	// vertically, since a horizontal scan from there would find it
+	public int jump(int c, int k, int end) {
+		int v = distances[(4 * c) + k];
+		int reach = (v > 0) ? v : -v;
+		int d = (k == EAST) ? 1 : ((k == WEST) ? -1 : ((k == SOUTH) ? stride : -stride));
+		int steps;
+		if((k == EAST) || (k == WEST)) {
+			steps = (end / stride == c / stride) ? ((end - c) * d) : 0;
+		} else {
+			steps = ((end / stride) - (c / stride)) * ((k == SOUTH) ? 1 : -1);
+		}
+		if((steps > 0) && (steps <= reach)) {
+			return c + (steps * d);
+		}
+		return (v > 0) ? (c + (v * d)) : -1;
+	}
+
+	// CRC32 of the OBSTACLEs of s, row by row. Also used by LandmarkTable
+	static long checksum(GridSnapshot s) {
+		java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+		byte[] cells = s.getCells();
+		byte[] row = new byte[s.getWidth()];
+		for(int y=0; y<s.getHeight(); y++) {
+			for(int x=0; x<row.length; x++) {
+				row[x] = (byte) ((cells[s.index(x, y)] == 1) ? 1 : 0);
+			}
+			crc.update(row, 0, row.length);
+		}
+		return crc.getValue();
+	}
+
+	// True if this table is for a grid with the same OBSTACLEs as s
+	public boolean matches(GridSnapshot s) {
+		if(s.getCells() == matched) {
+			return true;
+		}
+		if((s.getWidth() != width) || (s.getHeight() != height) || (checksum(s) != checksum)) {
+			return false;
+		}
+		matched = s.getCells();
+		return true;
+	}
+
+	// Write MAGIC, VERSION, width, height, checksum and the distances
+	public void save(String filename) throws java.io.IOException {
+		try(java.io.DataOutputStream out = new java.io.DataOutputStream(new java.io.BufferedOutputStream(new java.io.FileOutputStream(filename), 65536))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeLong(checksum);
+			for(int v : distances) {
+				out.writeInt(v);
+			}
+		}
+	}
+
+	// Read a table written by save(). Throws IOException if filename isn't one
+	public static JumpTable load(String filename) throws java.io.IOException {
+		try(java.io.DataInputStream in = new java.io.DataInputStream(new java.io.BufferedInputStream(new java.io.FileInputStream(filename), 65536))) {
+			if(in.readInt() != MAGIC) {
+				throw new java.io.IOException(filename+": not a jump table");
+			}
+			int version = in.readInt();
+			if(version != VERSION) {
+				throw new java.io.IOException(filename+": unsupported jump table version "+Integer.toString(version));
+			}
+			int width = in.readInt();
+			int height = in.readInt();
+			if((width <= 0) || (height <= 0) || ((long) (width + 2) * (height + 2) > (1 << 29))) {
+				throw new java.io.IOException(filename+": bad grid size");
+			}
+			long checksum = in.readLong();
+			int[] distances = new int[4 * (width + 2) * (height + 2)];
+			for(int i=0; i<distances.length; i++) {
+				distances[i] = in.readInt();
+			}
+			return new JumpTable(width, height, checksum, distances);
+		} catch(java.io.EOFException e) {
+			throw new java.io.IOException(filename+": truncated");
+		}
+	}
+}
+
+// Distances from a few landmark cells to every cell, for the ALT heuristic
+// (A*, Landmarks and the Triangle inequality, Goldberg and Harrelson) used
+// by Algorithms.ALT(). By the triangle inequality, a path from v to t is at
+// least |d(L, t) - d(L, v)| long for any landmark L, which on maze-like
+// grids is much closer to the real length than the taxicab distance.
+// Landmarks are chosen one at a time as the cell farthest from those chosen
+// so far, which spreads them round the edges of the map, and the distances
+// from each are found by a breadth-first search of the whole grid. Only the
+// cells connected to the first EMPTY cell get landmarks; for the rest the
+// heuristic is just the taxicab distance.
+// Distances are kept as chars, the landmarks of each cell together so a
+// lookup reads one cache line. Any over MAX_DISTANCE are kept as
+// MAX_DISTANCE, which only weakens the bound
+class LandmarkTable {
+	public static final int MAGIC = 0x50464c4d; // "PFLM"
+	public static final int VERSION = 1;
+	public static final int DEFAULT_LANDMARKS = 8;
+	public static final char UNREACHED = 0xffff;
+	public static final int MAX_DISTANCE = 0xfffe;
+
+	private int width;
+	private int height;
+	private int stride;
+	private long checksum; // Of the OBSTACLEs, see JumpTable.checksum()
+	private int count; // Number of landmarks
+	private int[] landmarks; // Cell indices, -1 where there were too few cells
+	private char[] distances; // count per cell, indexed as GridSnapshot cells
+	private byte[] matched; // Cells of the last snapshot found to match
+
+	// Choose count landmarks in s and find the distances from them
+	public LandmarkTable(GridSnapshot s, int count) {
+		assert(count > 0);
+		width = s.getWidth();
+		height = s.getHeight();
+		stride = s.getStride();
+		checksum = JumpTable.checksum(s);
+		this.count = count;
+		byte[] cells = s.getCells();
+		landmarks = new int[count];
+		Arrays.fill(landmarks, -1);
+		distances = new char[count * cells.length];
+		Arrays.fill(distances, UNREACHED);
+		matched = cells;
+
+		int first = -1;
+		for(int y=0; (y<height) && (first == -1); y++) {
+			for(int c=s.index(0, y); c<s.index(width, y); c++) {
+				if(cells[c] != 1) {
+					first = c;
+					break;
+				}
+			}
+		}
+		if(first == -1) {
+			return;
+		}
+		int[] dist = new int[cells.length];
+		int[] queue = new int[cells.length];
+		int[] nearest = new int[cells.length]; // Distance to the closest landmark so far
+		Arrays.fill(nearest, Integer.MAX_VALUE);
+		int next = search(cells, first, dist, queue, nearest);
+		Arrays.fill(nearest, Integer.MAX_VALUE); // first isn't a landmark
+		for(int i=0; i<count; i++) {
+			landmarks[i] = next;
+			next = search(cells, next, dist, queue, nearest);
+			for(int c=0; c<cells.length; c++) {
+				if(dist[c] != -1) {
+					distances[(c * count) + i] = (char) Math.min(dist[c], MAX_DISTANCE);
+				}
+			}
+			if(nearest[next] == 0) {
+				break; // Every cell is a landmark already
+			}
+		}
+	}
+
+	private LandmarkTable(int width, int height, long checksum, int[] landmarks, char[] distances) {
+		this.width = width;
+		this.height = height;
+		this.stride = width + 2;
+		this.checksum = checksum;
+		this.count = landmarks.length;
+		this.landmarks = landmarks;
+		this.distances = distances;
+		matched = null;
+	}
+
+	// Breadth-first search from source, setting dist of each cell to its
+	// distance, or -1 if not reached, and lowering nearest to it. Returns
+	// the cell reached with the largest nearest
+	private int search(byte[] cells, int source, int[] dist, int[] queue, int[] nearest) {
+		Arrays.fill(dist, -1);
+		int[] neighbours = new int[4];
+		int head = 0;
+		int tail = 0;
+		dist[source] = 0;
+		queue[tail++] = source;
+		int farthest = source;
+		while(head < tail) {
+			int c = queue[head++];
+			nearest[c] = Math.min(nearest[c], dist[c]);
+			if(nearest[c] > nearest[farthest]) {
+				farthest = c;
+			}
+			int numNeighbours = Algorithms.generateNeighbours(neighbours, c, cells, stride);
+			for(int k=0; k<numNeighbours; k++) {
+				int n = neighbours[k];
+				if(dist[n] == -1) {
+					dist[n] = dist[c] + 1;
+					queue[tail++] = n;
+				}
+			}
+		}
+		return farthest;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	// Cell index of the i-th landmark, or -1 if there were too few cells
+	public int getLandmark(int i) {
+		return landmarks[i];
+	}
+
+	// Distance from each landmark to t, for lowerBound()
+	public int[] distancesTo(int t) {
+		int[] d = new int[count];
+		for(int i=0; i<count; i++) {
+			d[i] = distances[(t * count) + i];
+		}
+		return d;
+	}
+
+	// The largest |d(L, t) - d(L, v)| over the landmarks L which reach both
+	// v and t, where to is distancesTo(t), or 0 if there are none. This is
+	// a consistent heuristic for the distance from v to t
+	public int lowerBound(int v, int[] to) {
+		int bound = 0;
+		int base = v * count;
+		for(int i=0; i<count; i++) {
+			int d = distances[base + i];
+			if((d == UNREACHED) || (to[i] == UNREACHED)) {
+				continue;
+			}
+			d = (d > to[i]) ? (d - to[i]) : (to[i] - d);
+			if(d > bound) {
+				bound = d;
+			}
+		}
+		return bound;
+	}
+
+	// True if this table is for a grid with the same OBSTACLEs as s
+	public boolean matches(GridSnapshot s) {
+		if(s.getCells() == matched) {
+			return true;
+		}
+		if((s.getWidth() != width) || (s.getHeight() != height) || (JumpTable.checksum(s) != checksum)) {
+			return false;
+		}
+		matched = s.getCells();
+		return true;
+	}
+
+	// Write MAGIC, VERSION, width, height, checksum, the number of
+	// landmarks, the landmarks and the distances
+	public void save(String filename) throws java.io.IOException {
+		try(java.io.DataOutputStream out = new java.io.DataOutputStream(new java.io.BufferedOutputStream(new java.io.FileOutputStream(filename), 65536))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeLong(checksum);
+			out.writeInt(count);
+			for(int c : landmarks) {
+				out.writeInt(c);
+			}
+			for(char d : distances) {
+				out.writeChar(d);
+			}
+		}
+	}
+
+	// Read a table written by save(). Throws IOException if filename isn't one
+	public static LandmarkTable load(String filename) throws java.io.IOException {
+		try(java.io.DataInputStream in = new java.io.DataInputStream(new java.io.BufferedInputStream(new java.io.FileInputStream(filename), 65536))) {
+			if(in.readInt() != MAGIC) {
+				throw new java.io.IOException(filename+": not a landmark table");
+			}
+			int version = in.readInt();
+			if(version != VERSION) {
+				throw new java.io.IOException(filename+": unsupported landmark table version "+Integer.toString(version));
+			}
+			int width = in.readInt();
+			int height = in.readInt();
+			if((width <= 0) || (height <= 0) || ((long) (width + 2) * (height + 2) > (1 << 29))) {
+				throw new java.io.IOException(filename+": bad grid size");
+			}
+			long checksum = in.readLong();
+			int count = in.readInt();
+			int size = (width + 2) * (height + 2);
+			if((count <= 0) || ((long) count * size > Integer.MAX_VALUE - 8)) {
+				throw new java.io.IOException(filename+": bad number of landmarks");
+			}
+			int[] landmarks = new int[count];
+			for(int i=0; i<count; i++) {
+				landmarks[i] = in.readInt();
+				if((landmarks[i] < -1) || (landmarks[i] >= size)) {
+					throw new java.io.IOException(filename+": bad landmark");
+				}
+			}
+			char[] distances = new char[count * size];
+			for(int i=0; i<distances.length; i++) {
+				distances[i] = in.readChar();
+			}
+			return new LandmarkTable(width, height, checksum, landmarks, distances);
+		} catch(java.io.EOFException e) {
+			throw new java.io.IOException(filename+": truncated");
+		}
+	}
+}
+
+// Abstraction of a grid for hierarchical pathfinding (HPA*, Botea, Muller
+// and Schaeffer), see Algorithms.HPA(). The grid is cut into square
+// clusters of size x size cells. Each run of cells along the border of two
+// clusters which is EMPTY on both sides is an entrance, and the cells
+// facing each other across its middle, or across both its ends if it's
+// long, become nodes of an abstract graph. Nodes facing each other across a
+// border are joined by edges of length 1, and nodes of the same cluster by
+// edges as long as the shortest path between them inside the cluster.
+// Both clusters beside a border find the same entrances, so each cluster
+// can be worked out on its own, in parallel.
+// A cluster only depends on the OBSTACLEs in it and along its borders, so
+// when they change, just that cluster, and the one across the border if the
+// cell is on one, is worked out again by the next refresh(). Changes are
+// found by comparing snapshots, or as they happen if the hierarchy is
+// attach()ed to a Grid
+class ClusterHierarchy implements ObstacleListener {
+	public static final int DEFAULT_SIZE = 16;
+	public static final int LONG_ENTRANCE = 6; // Entrances this long get a node at each end
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	private int width;
+	private int height;
+	private int stride;
+	private int size; // Width and height of a cluster, in cells, except at the edges of the grid
+	private int clustersX;
+	private int clustersY;
+	private byte[] cells; // Of the snapshot the clusters were last worked out from
+	private int[][] nodes; // Of each cluster, as cell indices
+	private int[][] distances; // Of each cluster, between its n nodes, n * n
+	private int[] slots; // Position of each cell in its cluster's nodes, -1 if it isn't one
+	private Grid grid; // Telling this of changes, null if not attached
+	private BitSet pending; // Clusters changed in grid since they were worked out, guarded by itself
+	private int[] localDistances; // Scratch for searches inside a cluster, see searchCluster()
+	private int[] localFrom;
+	private int[] localQueue;
+	private int localExpansions; // By searches inside clusters for queries, see takeLocalExpansions()
+
+	public ClusterHierarchy(GridSnapshot s, int size) {
+		assert(size >= 2);
+		width = s.getWidth();
+		height = s.getHeight();
+		stride = s.getStride();
+		this.size = size;
+		clustersX = (width + size - 1) / size;
+		clustersY = (height + size - 1) / size;
+		cells = s.getCells();
+		nodes = new int[clustersX * clustersY][];
+		distances = new int[nodes.length][];
+		slots = new int[cells.length];
+		Arrays.fill(slots, -1);
+		pending = new BitSet();
+		localDistances = new int[size * size];
+		localFrom = new int[size * size];
+		localQueue = new int[size * size];
+		java.util.stream.IntStream.range(0, nodes.length).parallel().forEach(new java.util.function.IntConsumer() {
+			public void accept(int k) {
+				build(k);
+			}
+		});
+	}
+
+	// Make a hierarchy for g's current cells, which g keeps up to date by
+	// telling it which cells change
+	public static ClusterHierarchy attach(Grid g, int size) {
+		synchronized(g) {
+			ClusterHierarchy h = new ClusterHierarchy(g.snapshot(), size);
+			h.grid = g;
+			g.setObstacleListener(h);
+			return h;
+		}
+	}
+
+	// True if this is for grids the size of s, so refresh() can bring it up to date
+	public boolean fits(GridSnapshot s) {
+		return (s.getWidth() == width) && (s.getHeight() == height);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	// Cluster holding the cell at index c
+	public int cluster(int c) {
+		return ((((c / stride) - 1) / size) * clustersX) + (((c % stride) - 1) / size);
+	}
+
+	// Nodes of cluster k, as cell indices. Must not be modified
+	public int[] getNodes(int k) {
+		return nodes[k];
+	}
+
+	// Position of the cell at index c in getNodes() of its cluster, or -1 if
+	// it isn't a node
+	public int getSlot(int c) {
+		return slots[c];
+	}
+
+	// Length of the shortest path inside cluster k between its i-th and j-th
+	// nodes, or UNREACHABLE
+	public int getDistance(int k, int i, int j) {
+		return distances[k][(i * nodes[k].length) + j];
+	}
+
+	// Number of nodes in the abstract graph
+	public int countNodes() {
+		int n = 0;
+		for(int[] a : nodes) {
+			n += a.length;
+		}
+		return n;
+	}
+
+	public void obstacleChanged(int x, int y) {
+		synchronized(pending) {
+			markChanged(pending, x, y);
+		}
+	}
+
+	// Mark the clusters which depend on the cell at (x, y) in changed
+	private void markChanged(BitSet changed, int x, int y) {
+		int k = ((y / size) * clustersX) + (x / size);
+		changed.set(k);
+		if((x % size == 0) && (x > 0)) {
+			changed.set(k - 1);
+		}
+		if((x % size == size - 1) && (x < width - 1)) {
+			changed.set(k + 1);
+		}
+		if((y % size == 0) && (y > 0)) {
+			changed.set(k - clustersX);
+		}
+		if((y % size == size - 1) && (y < height - 1)) {
+			changed.set(k + clustersX);
+		}
+	}
+
+	// Work out again the clusters whose OBSTACLEs differ in s, which must
+	// fit() this. If attached, those are the clusters the Grid has reported
+	// changes in, otherwise s is compared with the last snapshot, a row at a
+	// time. Not thread safe, see Algorithms.HPA()
+	public void refresh(GridSnapshot s) {
+		assert(fits(s));
+		byte[] now = s.getCells();
+		BitSet changed;
+		if(grid != null) {
+			synchronized(grid) {
+				synchronized(pending) {
+					changed = (BitSet) pending.clone();
+					// Changes made since s was taken have to be worked out
+					// again for the snapshots which have them
+					if(grid.snapshot().getCells() == now) {
+						pending.clear();
+					}
+				}
+			}
+		} else if(now == cells) {
+			return;
+		} else {
+			changed = new BitSet();
+			for(int y=0; y<height; y++) {
+				int from = stride * (y + 1) + 1;
+				int to = from + width;
+				int i = Arrays.mismatch(cells, from, to, now, from, to);
+				while(i != -1) {
+					int c = from + i;
+					if((cells[c] == 1) != (now[c] == 1)) {
+						markChanged(changed, (c % stride) - 1, y);
+					}
+					from = c + 1;
+					i = (from < to) ? Arrays.mismatch(cells, from, to, now, from, to) : -1;
+				}
+			}
+		}
+		cells = now;
+		changed.stream().parallel().forEach(new java.util.function.IntConsumer() {
+			public void accept(int k) {
+				build(k);
+			}
+		});
+	}
+
+	// Find the nodes of cluster k, from the current cells, and the distances
+	// between them
+	private void build(int k) {
+		int x0 = (k % clustersX) * size;
+		int y0 = (k / clustersX) * size;
+		int x1 = Math.min(x0 + size, width) - 1;
+		int y1 = Math.min(y0 + size, height) - 1;
+		if(nodes[k] != null) {
+			for(int c : nodes[k]) {
+				slots[c] = -1;
+			}
+		}
+
+		// Cells can be on two borders, at corners, but are only added once
+		int[] found = new int[4 * size];
+		int n = 0;
+		if(x0 > 0) {
+			n = addEntrances(found, n, index(x0, y0), stride, y1 - y0 + 1, -1);
+		}
+		if(x1 < width - 1) {
+			n = addEntrances(found, n, index(x1, y0), stride, y1 - y0 + 1, 1);
+		}
+		if(y0 > 0) {
+			n = addEntrances(found, n, index(x0, y0), 1, x1 - x0 + 1, -stride);
+		}
+		if(y1 < height - 1) {
+			n = addEntrances(found, n, index(x0, y1), 1, x1 - x0 + 1, stride);
+		}
+		int[] d = new int[n * n];
+		int[] dist = new int[size * size];
+		int[] from = new int[size * size];
+		int[] queue = new int[size * size];
+		for(int i=0; i<n; i++) {
+			searchCluster(found[i], -1, dist, from, queue);
+			for(int j=0; j<n; j++) {
+				int v = dist[local(found[j])];
+				d[(i * n) + j] = (v == -1) ? UNREACHABLE : v;
+			}
+		}
+		nodes[k] = Arrays.copyOf(found, n);
+		distances[k] = d;
+	}
+
+	// Add the nodes of the entrances along length cells of a border, from
+	// first, moving step at a time, where across is the move to the cell
+	// facing each one in the next cluster. Returns the number of nodes found
+	private int addEntrances(int[] found, int n, int first, int step, int length, int across) {
+		int run = 0; // Length of the current entrance
+		for(int i=0; i<=length; i++) {
+			int c = first + (i * step);
+			if((i < length) && (cells[c] != 1) && (cells[c + across] != 1)) {
+				run++;
+			} else if(run > 0) {
+				int end = c - step;
+				int begin = end - ((run - 1) * step);
+				if(run < LONG_ENTRANCE) {
+					n = addNode(found, n, begin + ((run / 2) * step));
+				} else {
+					n = addNode(found, n, begin);
+					n = addNode(found, n, end);
+				}
+				run = 0;
+			}
+		}
+		return n;
+	}
+
+	private int addNode(int[] found, int n, int c) {
+		if(slots[c] == -1) {
+			slots[c] = n;
+			found[n++] = c;
+		}
+		return n;
+	}
+
+	private int index(int x, int y) {
+		return ((y + 1) * stride) + x + 1;
+	}
+
+	// Index of the cell at index c within its cluster, row by row
+	private int local(int c) {
+		int x = (c % stride) - 1;
+		int y = (c / stride) - 1;
+		return ((y % size) * size) + (x % size);
+	}
+
+	// Breadth-first search from the cell at index c, without leaving its
+	// cluster, until target is reached (or every cell, if target is -1).
+	// Sets dist of each cell of the cluster (see local()) to its distance
+	// from c, or -1 if not reached, and from to its predecessor's cell
+	// index. Returns the number of cells expanded
+	private int searchCluster(int c, int target, int[] dist, int[] from, int[] queue) {
+		int k = cluster(c);
+		int x0 = (k % clustersX) * size;
+		int y0 = (k / clustersX) * size;
+		int w = Math.min(x0 + size, width) - x0;
+		int h = Math.min(y0 + size, height) - y0;
+		Arrays.fill(dist, -1);
+		int head = 0;
+		int tail = 0;
+		dist[local(c)] = 0;
+		queue[tail++] = c;
+		while(head < tail) {
+			int p = queue[head++];
+			if(p == target) {
+				break;
+			}
+			int lp = local(p);
+			int lx = lp % size;
+			int ly = lp / size;
+			int g = dist[lp] + 1;
+			for(int m=0; m<4; m++) {
+				int n, ln;
+				if(m == 0) {
+					if(lx == 0) {
+						continue;
+					}
+					n = p - 1;
+					ln = lp - 1;
+				} else if(m == 1) {
+					if(lx == w - 1) {
+						continue;
+					}
+					n = p + 1;
+					ln = lp + 1;
+				} else if(m == 2) {
+					if(ly == 0) {
+						continue;
+					}
+					n = p - stride;
+					ln = lp - size;
+				} else {
+					if(ly == h - 1) {
+						continue;
+					}
+					n = p + stride;
+					ln = lp + size;
+				}
+				if((cells[n] != 1) && (dist[ln] == -1)) {
+					dist[ln] = g;
+					from[ln] = p;
+					queue[tail++] = n;
+				}
+			}
+		}
+		return head;
+	}
+
+	// Distances inside its cluster from the cell at index c to each node of
+	// the cluster, then to other if it's in the same cluster, UNREACHABLE
+	// where there's no path. Not thread safe, see Algorithms.HPA()
+	public int[] connect(int c, int other) {
+		int k = cluster(c);
+		int[] a = nodes[k];
+		int[] d = new int[a.length + 1];
+		localExpansions += searchCluster(c, -1, localDistances, localFrom, localQueue);
+		for(int i=0; i<a.length; i++) {
+			int v = localDistances[local(a[i])];
+			d[i] = (v == -1) ? UNREACHABLE : v;
+		}
+		int v = (cluster(other) == k) ? localDistances[local(other)] : -1;
+		d[a.length] = (v == -1) ? UNREACHABLE : v;
+		return d;
+	}
+
+	// Put the cells of a shortest path inside their cluster from a
+	// (exclusive) to b (inclusive), which must be connected, into path from
+	// position i. Returns the position after the last one. Not thread safe,
+	// see Algorithms.HPA()
+	public int fillPath(int a, int b, int[] path, int i) {
+		localExpansions += searchCluster(a, b, localDistances, localFrom, localQueue);
+		int length = localDistances[local(b)];
+		assert(length > 0);
+		int j = i + length - 1;
+		for(int p = b; p != a; p = localFrom[local(p)]) {
+			path[j--] = p;
+		}
+		return i + length;
+	}
+
+	// Cells expanded by connect() and fillPath() since the last call
+	public int takeLocalExpansions() {
+		int n = localExpansions;
+		localExpansions = 0;
+		return n;
+	}
+}
+
+
+// Contraction hierarchy (Geisberger et al.) over the EMPTY cells of a grid,
+// for answering many queries on a map which rarely changes, see
+// Algorithms.CH(). The cells are nodes of a graph with edges of length 1
+// between touching cells. Nodes are contracted (removed) one by one, least
+// important first, and whenever the shortest path between two of a
+// contracted node's neighbours went through it, a shortcut edge as long as
+// that path is added between them. Each node keeps its edges to the nodes
+// still there when it was contracted, which are all more important ("up").
+// Any shortest path then goes up and then down the hierarchy, so it can be
+// found by searching up from both ends, which only touches a few hundred
+// nodes on big grids, and shortcuts are unpacked back into cells through
+// the node they were made for. See Contractor for how it's built
+class ContractionHierarchy {
+	public static final int MAGIC = 0x50464348; // "PFCH"
+	public static final int VERSION = 1;
+
+	private int width;
+	private int height;
+	private int stride;
+	private long checksum; // Of the OBSTACLEs, see JumpTable.checksum()
+	private int[] cellOf; // Cell index of each node
+	private int[] nodeOf; // Node of each cell, -1 for OBSTACLEs
+	private int[] upFirst; // Up edges of node v are upFirst[v] to upFirst[v + 1] - 1
+	private int[] upTarget;
+	private int[] upLength;
+	private int[] upMiddle; // Node a shortcut was made for, -1 for an edge of the grid
+	private byte[] matched; // Cells of the last snapshot found to match
+
+	public ContractionHierarchy(GridSnapshot s) {
+		width = s.getWidth();
+		height = s.getHeight();
+		stride = s.getStride();
+		checksum = JumpTable.checksum(s);
+		byte[] cells = s.getCells();
+		nodeOf = new int[cells.length];
+		Arrays.fill(nodeOf, -1);
+		int n = 0;
+		for(int y=0; y<height; y++) {
+			for(int c=s.index(0, y); c<s.index(width, y); c++) {
+				if(cells[c] != 1) {
+					nodeOf[c] = n++;
+				}
+			}
+		}
+		cellOf = new int[n];
+		for(int c=0; c<cells.length; c++) {
+			if(nodeOf[c] != -1) {
+				cellOf[nodeOf[c]] = c;
+			}
+		}
+		Contractor contractor = new Contractor(cells, stride, cellOf, nodeOf);
+		contractor.contract();
+		upFirst = contractor.upFirst;
+		upTarget = contractor.upTarget;
+		upLength = contractor.upLength;
+		upMiddle = contractor.upMiddle;
+		matched = cells;
+	}
+
+	private ContractionHierarchy(int width, int height, long checksum, int[] cellOf, int[] upFirst, int[] upTarget, int[] upLength, int[] upMiddle) {
+		this.width = width;
+		this.height = height;
+		this.stride = width + 2;
+		this.checksum = checksum;
+		this.cellOf = cellOf;
+		this.upFirst = upFirst;
+		this.upTarget = upTarget;
+		this.upLength = upLength;
+		this.upMiddle = upMiddle;
+		nodeOf = new int[(width + 2) * (height + 2)];
+		Arrays.fill(nodeOf, -1);
+		for(int v=0; v<cellOf.length; v++) {
+			nodeOf[cellOf[v]] = v;
+		}
+		matched = null;
+	}
+
+	public int countNodes() {
+		return cellOf.length;
+	}
+
+	// Number of up edges, including shortcuts
+	public int countEdges() {
+		return upTarget.length;
+	}
+
+	public int getNode(int c) {
+		return nodeOf[c];
+	}
+
+	public int getCell(int v) {
+		return cellOf[v];
+	}
+
+	public int getFirstEdge(int v) {
+		return upFirst[v];
+	}
+
+	// One after the last up edge of v
+	public int getEndEdge(int v) {
+		return upFirst[v + 1];
+	}
+
+	public int getTarget(int e) {
+		return upTarget[e];
+	}
+
+	public int getLength(int e) {
+		return upLength[e];
+	}
+
+	// Up edge from a to b, or from b to a, of which there must be one
+	private int findEdge(int a, int b) {
+		for(int e=upFirst[a]; e<upFirst[a + 1]; e++) {
+			if(upTarget[e] == b) {
+				return e;
+			}
+		}
+		for(int e=upFirst[b]; e<upFirst[b + 1]; e++) {
+			if(upTarget[e] == a) {
+				return e;
+			}
+		}
+		throw new IllegalStateException("No edge between nodes "+Integer.toString(a)+" and "+Integer.toString(b));
+	}
+
+	// Put the cells along the edge from node a to node b, after a, into path
+	// from position i, unpacking shortcuts. Returns the position after b
+	public int unpack(int a, int b, int[] path, int i) {
+		// Edges still to unpack, the next one last
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = a;
+		stack[top++] = b;
+		while(top > 0) {
+			int to = stack[--top];
+			int from = stack[--top];
+			int m = upMiddle[findEdge(from, to)];
+			if(m == -1) {
+				path[i++] = cellOf[to];
+			} else {
+				if(top + 4 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				}
+				stack[top++] = m;
+				stack[top++] = to;
+				stack[top++] = from;
+				stack[top++] = m;
+			}
+		}
+		return i;
+	}
+
+	// True if this hierarchy is for a grid with the same OBSTACLEs as s
+	public boolean matches(GridSnapshot s) {
+		if(s.getCells() == matched) {
+			return true;
+		}
+		if((s.getWidth() != width) || (s.getHeight() != height) || (JumpTable.checksum(s) != checksum)) {
+			return false;
+		}
+		matched = s.getCells();
+		return true;
+	}
+
+	// Write MAGIC, VERSION, width, height, checksum, the number of nodes and
+	// edges, the cell of each node, then the up edges
+	public void save(String filename) throws java.io.IOException {
+		try(java.io.DataOutputStream out = new java.io.DataOutputStream(new java.io.BufferedOutputStream(new java.io.FileOutputStream(filename), 65536))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeLong(checksum);
+			out.writeInt(cellOf.length);
+			out.writeInt(upTarget.length);
+			for(int c : cellOf) {
+				out.writeInt(c);
+			}
+			for(int e : upFirst) {
+				out.writeInt(e);
+			}
+			for(int e=0; e<upTarget.length; e++) {
+				out.writeInt(upTarget[e]);
+				out.writeInt(upLength[e]);
+				out.writeInt(upMiddle[e]);
+			}
+		}
+	}
+
+	// Read a hierarchy written by save(). Throws IOException if filename
+	// isn't one
+	public static ContractionHierarchy load(String filename) throws java.io.IOException {
+		try(java.io.DataInputStream in = new java.io.DataInputStream(new java.io.BufferedInputStream(new java.io.FileInputStream(filename), 65536))) {
+			if(in.readInt() != MAGIC) {
+				throw new java.io.IOException(filename+": not a contraction hierarchy");
+			}
+			int version = in.readInt();
+			if(version != VERSION) {
+				throw new java.io.IOException(filename+": unsupported contraction hierarchy version "+Integer.toString(version));
+			}
+			int width = in.readInt();
+			int height = in.readInt();
+			if((width <= 0) || (height <= 0) || ((long) (width + 2) * (height + 2) > (1 << 29))) {
+				throw new java.io.IOException(filename+": bad grid size");
+			}
+			long checksum = in.readLong();
+			int n = in.readInt();
+			int m = in.readInt();
+			int size = (width + 2) * (height + 2);
+			if((n < 0) || (n > size) || (m < 0)) {
+				throw new java.io.IOException(filename+": bad number of nodes or edges");
+			}
+			int[] cellOf = new int[n];
+			for(int v=0; v<n; v++) {
+				cellOf[v] = in.readInt();
+				if((cellOf[v] < 0) || (cellOf[v] >= size)) {
+					throw new java.io.IOException(filename+": bad cell");
+				}
+			}
+			int[] upFirst = new int[n + 1];
+			for(int v=0; v<=n; v++) {
+				upFirst[v] = in.readInt();
+				if((upFirst[v] < 0) || (upFirst[v] > m) || ((v > 0) && (upFirst[v] < upFirst[v - 1]))) {
+					throw new java.io.IOException(filename+": bad edge list");
+				}
+			}
+			int[] upTarget = new int[m];
+			int[] upLength = new int[m];
+			int[] upMiddle = new int[m];
+			for(int e=0; e<m; e++) {
+				upTarget[e] = in.readInt();
+				upLength[e] = in.readInt();
+				upMiddle[e] = in.readInt();
+				if((upTarget[e] < 0) || (upTarget[e] >= n) || (upMiddle[e] < -1) || (upMiddle[e] >= n)) {
+					throw new java.io.IOException(filename+": bad edge");
+				}
+			}
+			return new ContractionHierarchy(width, height, checksum, cellOf, upFirst, upTarget, upLength, upMiddle);
+		} catch(java.io.EOFException e) {
+			throw new java.io.IOException(filename+": truncated");
+		}
+	}
+}
+
+// Builds the up edges of a ContractionHierarchy, contracting nodes in
+// rounds so that each round can be done in parallel:
+//  - Each node's importance is estimated by contracting it without
+//    changing anything: the shortcuts it would need less the edges it
+//    would remove, plus its neighbours already contracted, which spreads
+//    contraction evenly over the grid
+//  - A round contracts every node less important than all its neighbours
+//    (ties going to the lower node), so no two are neighbours, and works
+//    out their shortcuts in parallel
+//  - Shortcuts are found by witness searches: Dijkstra from each
+//    neighbour of the node, avoiding it, which stop after WITNESS_LIMIT
+//    nodes. Where no path as short as the one through the node is found,
+//    a shortcut is added, so giving up early only adds needless
+//    shortcuts. Searches also avoid every node of the round, since those
+//    may all be gone once their shortcuts are added
+//  - Shortcuts are added on one thread, then the contracted nodes are taken
+//    out of their neighbours' edges, and those neighbours' importance is
+//    estimated again, in parallel
+class Contractor {
+	public static final int WITNESS_LIMIT = 200; // Nodes settled per witness search, at most
+	public static final int ESTIMATE_LIMIT = 25; // The same when only estimating importance
+
+	private int n;
+	private int[][] edges; // Neighbours still there of each node, then the lengths, then the middle nodes
+	private int[] degree;
+	private int[] round; // Round in which each node was contracted, 0 if it hasn't been
+	private int[] importance;
+	private int[] contractedNeighbours;
+	private ThreadLocal<IntHeap> heaps; // For witness searches, each thread's own
+	private ThreadLocal<int[]> distances; // Valid where the heap wasAdded()
+
+	public int[] upFirst;
+	public int[] upTarget;
+	public int[] upLength;
+	public int[] upMiddle;
+
+	public Contractor(byte[] cells, int stride, int[] cellOf, int[] nodeOf) {
+		n = cellOf.length;
+		edges = new int[n][];
+		degree = new int[n];
+		round = new int[n];
+		importance = new int[n];
+		contractedNeighbours = new int[n];
+		int[] neighbours = new int[4];
+		for(int v=0; v<n; v++) {
+			int count = Algorithms.generateNeighbours(neighbours, cellOf[v], cells, stride);
+			edges[v] = new int[3 * 4];
+			for(int k=0; k<count; k++) {
+				edges[v][k] = nodeOf[neighbours[k]];
+				edges[v][4 + k] = 1;
+				edges[v][8 + k] = -1;
+			}
+			degree[v] = count;
+		}
+		heaps = new ThreadLocal<IntHeap>() {
+			protected IntHeap initialValue() {
+				return new IntHeap(Math.max(1, n));
+			}
+		};
+		distances = new ThreadLocal<int[]>() {
+			protected int[] initialValue() {
+				return new int[Math.max(1, n)];
+			}
+		};
+	}
+
+	// Contract every node and fill in the up edges
+	public void contract() {
+		int[][] up = new int[n][]; // Edges of each node when it was contracted, as in edges
+		int[] upDegree = new int[n];
+		java.util.stream.IntStream.range(0, n).parallel().forEach(new java.util.function.IntConsumer() {
+			public void accept(int v) {
+				importance[v] = estimate(v);
+			}
+		});
+
+		int[] remaining = java.util.stream.IntStream.range(0, n).toArray();
+		int r = 0;
+		while(remaining.length > 0) {
+			r++;
+			int[] chosen = java.util.stream.IntStream.of(remaining).parallel().filter(new java.util.function.IntPredicate() {
+				public boolean test(int v) {
+					return isLocalMinimum(v);
+				}
+			}).toArray();
+			for(int v : chosen) {
+				round[v] = r;
+			}
+			int thisRound = r;
+			int[][] shortcuts = new int[chosen.length][];
+			java.util.stream.IntStream.range(0, chosen.length).parallel().forEach(new java.util.function.IntConsumer() {
+				public void accept(int i) {
+					shortcuts[i] = findShortcuts(chosen[i], thisRound, WITNESS_LIMIT);
+				}
+			});
+			for(int i=0; i<chosen.length; i++) {
+				int v = chosen[i];
+				up[v] = edges[v];
+				upDegree[v] = degree[v];
+				int[] s = shortcuts[i];
+				for(int j=0; j<s.length; j+=3) {
+					addEdge(s[j], s[j + 1], s[j + 2], v);
+					addEdge(s[j + 1], s[j], s[j + 2], v);
+				}
+			}
+			// Take the chosen nodes out of their neighbours' edges
+			java.util.BitSet touched = new java.util.BitSet(n);
+			for(int v : chosen) {
+				for(int k=0; k<degree[v]; k++) {
+					touched.set(edges[v][k]);
+				}
+			}
+			int[] affected = touched.stream().toArray();
+			java.util.stream.IntStream.of(affected).parallel().forEach(new java.util.function.IntConsumer() {
+				public void accept(int u) {
+					removeContracted(u);
+				}
+			});
+			java.util.stream.IntStream.of(affected).parallel().forEach(new java.util.function.IntConsumer() {
+				public void accept(int u) {
+					importance[u] = estimate(u);
+				}
+			});
+			remaining = java.util.stream.IntStream.of(remaining).filter(new java.util.function.IntPredicate() {
+				public boolean test(int v) {
+					return (round[v] == 0);
+				}
+			}).toArray();
+		}
+
+		upFirst = new int[n + 1];
+		for(int v=0; v<n; v++) {
+			upFirst[v + 1] = upFirst[v] + upDegree[v];
+		}
+		upTarget = new int[upFirst[n]];
+		upLength = new int[upFirst[n]];
+		upMiddle = new int[upFirst[n]];
+		for(int v=0; v<n; v++) {
+			int capacity = up[v].length / 3;
+			for(int k=0; k<upDegree[v]; k++) {
+				upTarget[upFirst[v] + k] = up[v][k];
+				upLength[upFirst[v] + k] = up[v][capacity + k];
+				upMiddle[upFirst[v] + k] = up[v][(2 * capacity) + k];
+			}
+		}
+	}
+
+	// True if v is less important than all its neighbours. Ties are broken
+	// by a hash of the node rather than its number, which would contract a
+	// plain area as a diagonal wavefront, only a few nodes per round
+	private boolean isLocalMinimum(int v) {
+		for(int k=0; k<degree[v]; k++) {
+			int u = edges[v][k];
+			if((importance[u] < importance[v]) || ((importance[u] == importance[v]) && (tieBreak(u) < tieBreak(v)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// A different number for each node, in no particular order
+	private static int tieBreak(int v) {
+		return Integer.reverse(v * 0x9E3779B9);
+	}
+
+	private int estimate(int v) {
+		int shortcuts = findShortcuts(v, -1, ESTIMATE_LIMIT).length / 3;
+		return (2 * (shortcuts - degree[v])) + contractedNeighbours[v];
+	}
+
+	// Add an edge from u to w of the given length, made for middle, or
+	// shorten the one there is
+	private void addEdge(int u, int w, int length, int middle) {
+		int[] e = edges[u];
+		int capacity = e.length / 3;
+		for(int k=0; k<degree[u]; k++) {
+			if(e[k] == w) {
+				if(length < e[capacity + k]) {
+					e[capacity + k] = length;
+					e[(2 * capacity) + k] = middle;
+				}
+				return;
+			}
+		}
+		if(degree[u] == capacity) {
+			int[] bigger = new int[6 * capacity];
+			System.arraycopy(e, 0, bigger, 0, capacity);
+			System.arraycopy(e, capacity, bigger, 2 * capacity, capacity);
+			System.arraycopy(e, 2 * capacity, bigger, 4 * capacity, capacity);
+			edges[u] = bigger;
+			e = bigger;
+			capacity *= 2;
+		}
+		e[degree[u]] = w;
+		e[capacity + degree[u]] = length;
+		e[(2 * capacity) + degree[u]] = middle;
+		degree[u]++;
+	}
+
+	// Drop the edges of u to contracted nodes. The arrays of contracted
+	// nodes are kept as their up edges, so u gets new ones
+	private void removeContracted(int u) {
+		int[] e = edges[u];
+		int capacity = e.length / 3;
+		int[] kept = new int[e.length];
+		int count = 0;
+		for(int k=0; k<degree[u]; k++) {
+			if(round[e[k]] == 0) {
+				kept[count] = e[k];
+				kept[capacity + count] = e[capacity + k];
+				kept[(2 * capacity) + count] = e[(2 * capacity) + k];
+				count++;
+			} else {
+				contractedNeighbours[u]++;
+			}
+		}
+		edges[u] = kept;
+		degree[u] = count;
+	}
+
+	// Return the shortcuts needed to contract v, as triples of the two
+	// neighbours and the length, each pair once. Witness searches avoid v
+	// and the nodes contracted in thisRound, and settle at most settleLimit
+	// nodes
+	private int[] findShortcuts(int v, int thisRound, int settleLimit) {
+		IntHeap heap = heaps.get();
+		int[] dist = distances.get();
+		int[] e = edges[v];
+		int capacity = e.length / 3;
+		int d = degree[v];
+		int[] found = new int[0];
+		int numFound = 0;
+		for(int i=0; i<d-1; i++) {
+			// Only the pairs with later neighbours are looked for
+			int longest = 0;
+			for(int j=i+1; j<d; j++) {
+				longest = Math.max(longest, e[capacity + j]);
+			}
+			int source = e[i];
+			witnessSearch(heap, dist, source, v, thisRound, e[capacity + i] + longest, settleLimit);
+			for(int j=i+1; j<d; j++) {
+				int target = e[j];
+				int through = e[capacity + i] + e[capacity + j];
+				if(heap.wasAdded(target) && (dist[target] <= through)) {
+					continue;
+				}
+				if(numFound + 3 > found.length) {
+					found = Arrays.copyOf(found, Math.max(12, 2 * found.length));
+				}
+				found[numFound++] = source;
+				found[numFound++] = target;
+				found[numFound++] = through;
+			}
+		}
+		return (numFound == found.length) ? found : Arrays.copyOf(found, numFound);
+	}
+
+	// Dijkstra from source, avoiding v and the nodes of thisRound, until
+	// every node within limit or settleLimit nodes are settled
+	private void witnessSearch(IntHeap heap, int[] dist, int source, int v, int thisRound, int limit, int settleLimit) {
+		heap.clear();
+		heap.add(source, 0);
+		dist[source] = 0;
+		int settled = 0;
+		while(!heap.isEmpty()) {
+			if((heap.findMinumumKey() > limit) || (settled == settleLimit)) {
+				break;
+			}
+			int x = heap.extractMinimum();
+			settled++;
+			int[] e = edges[x];
+			int capacity = e.length / 3;
+			for(int k=0; k<degree[x]; k++) {
+				int y = e[k];
+				if((y == v) || (round[y] == thisRound)) {
+					continue;
+				}
+				int nd = dist[x] + e[capacity + k];
+				if(nd > limit) {
+					continue; // Too long to be a witness
+				}
+				if(!heap.wasAdded(y)) {
+					heap.add(y, nd);
+					dist[y] = nd;
+				} else if(heap.contains(y) && (nd < dist[y])) {
+					heap.decreaseKey(y, nd);
+					dist[y] = nd;
+				}
+			}
+		}
+	}
+}
 
-			c = (DijkstraContents) q.extractMinimum();
-			removedList[c.getX()][c.getY()] = true;
+// One direction of a bidirectional search (see Algorithms.bidirectional()),
+// from root towards target. Each cell's distance from root is kept in a
+// label, which the other direction reads whenever it reaches the cell, to
+// find where they meet. The best meeting is shared, as a path length in
+// the top half of a long and the meeting cell in the bottom, so that it
+// can be updated atomically.
+// With threads, each direction run()s on its own thread until either finds
+// the search is done, and labels are written and read as volatiles (see
+// LABELS). A direction writes its label for a cell before reading the
+// other's, so if both reach a cell at about the same time, at least one
+// of them sees the other's label and records the meeting. Each direction's
+// smallest key is only published once the cell it belongs to has been
+// fully expanded, so the other direction never stops too early
+class Frontier implements Runnable {
+	public static final long NONE = Long.MAX_VALUE; // No meeting yet
+	private static final java.lang.invoke.VarHandle LABELS = java.lang.invoke.MethodHandles.arrayElementVarHandle(long[].class);
+
+	private byte[] cells;
+	private int stride;
+	private int root;
+	private int rootX;
+	private int rootY;
+	private int targetX;
+	private int targetY;
+	private boolean heuristic; // Use the average of the distances to the ends, see above
+	private int ties; // Keys in openSet are scaled by this to break ties, see heapKey()
+	private boolean threads;
+	private IntHeap openSet;
+	private int[] cameFrom;
+	private int[] neighbours;
+	private long[] labels; // Generation in the top half and distance in the bottom
+	private long generation;
+	private Frontier other;
+	private java.util.concurrent.atomic.AtomicLong best;
+	private java.util.concurrent.atomic.AtomicBoolean done;
+	private SearchListener l;
+	private volatile int top; // Smallest key in openSet, MAX_VALUE if empty
+	private java.util.concurrent.atomic.AtomicBoolean claimed; // By the thread which run()s this
+	private CountDownLatch finished;
+
+	public int expansions;
+	public int pushes;
+	public int decreaseKeys;
+	public int peakOpen;
+
+	// Start a search from root using the workspace ws
+	public Frontier(GridSnapshot s, int root, int target, boolean heuristic, boolean threads, SearchWorkspace ws, java.util.concurrent.atomic.AtomicLong best, java.util.concurrent.atomic.AtomicBoolean done, SearchListener l) {
+		cells = s.getCells();
+		stride = s.getStride();
+		this.root = root;
+		rootX = root % stride;
+		rootY = root / stride;
+		targetX = target % stride;
+		targetY = target / stride;
+		this.heuristic = heuristic;
+		this.threads = threads;
+		ties = heuristic ? (int) Math.max(1, Math.min(s.getWidth() + s.getHeight() + 1, Integer.MAX_VALUE / (3L * cells.length + 1))) : 1;
+		openSet = ws.heap;
+		cameFrom = ws.cameFrom;
+		neighbours = ws.neighbours;
+		labels = ws.getLabels();
+		generation = ws.getGeneration();
+		this.best = best;
+		this.done = done;
+		this.l = l;
+		claimed = new java.util.concurrent.atomic.AtomicBoolean(false);
+		finished = new CountDownLatch(1);
+
+		setLabel(root, 0);
+		openSet.add(root, heapKey(root, 0));
+		top = key(root, 0);
+		expansions = 0;
+		pushes = 1;
+		decreaseKeys = 0;
+		peakOpen = 1;
+	}
+
+	public void setOther(Frontier f) {
+		other = f;
+	}
+
+	public static long pack(int length, int c) {
+		return ((long) length << 32) | c;
+	}
+
+	public static int cell(long meeting) {
+		return (int) meeting;
+	}
+
+	public int size() {
+		return openSet.size();
+	}
+
+	public int[] getCameFrom() {
+		return cameFrom;
+	}
+
+	private int key(int c, int g) {
+		if(!heuristic) {
+			return 2 * g;
+		}
+		int x = c % stride;
+		int y = c / stride;
+		return (2 * g) + (Math.abs(targetX - x) + Math.abs(targetY - y)) - (Math.abs(rootX - x) + Math.abs(rootY - y));
+	}
 
-			stats.stopClock();
-			g.markSelected(c.getX(), c.getY());
-			gui.updateDisplay();
-			stats.startClock();
+	// Key of c in openSet. Like Algorithms.jumpKey(), ties go to the cell
+	// nearest target, which saves expanding whole plateaus of equal keys
+	// on open ground. Keys are under 3 * cells.length, since g is
+	private int heapKey(int c, int g) {
+		if(ties == 1) {
+			return key(c, g);
+		}
+		int h = Math.abs(targetX - (c % stride)) + Math.abs(targetY - (c / stride));
+		return (key(c, g) * ties) + Math.min(h, ties - 1);
+	}
 
-			if(c == endC) {
-				stats.stopClock();
-				stats.success = true;
-				stats.iterations = iterations;
-				ArrayList<DijkstraContents> path = reconstructDijkstraPath(startC, c);
-				stats.pathLength = path.size();
-				for(DijkstraContents step : path) {
-					g.markSolution(step.getX(), step.getY());
-				}
-				gui.instantUpdate();
-				g.setFinalise(false);
-				return c.getKey();
-			}
+	private long label(int c) {
+		return threads ? (long) LABELS.getVolatile(labels, c) : labels[c];
+	}
 
-			generateDijkstraNeighbours(neighbours, c, matrix, contentList, x, y);
-			// cCoord[0] = c.getX();
-			// cCoord[1] = c.getY();
-			// generateNeighbours(neighbours, cCoord, matrix, x, y);
+	private void setLabel(int c, int g) {
+		if(threads) {
+			LABELS.setVolatile(labels, c, (generation << 32) | g);
+		} else {
+			labels[c] = (generation << 32) | g;
+		}
+	}
 
-			// for(int[] neigh : neighbours) {
-			// 	DijkstraContents d = contentList[neigh[0]][neigh[1]];
-			// 	if(!(removedList[neigh[0]][neigh[1]])) {
-			// 		alt = c.getKey() + 1;
-			// 		if(alt < d.getKey()) {
-			// 			q.decreaseKey(d, alt);
-			// 			d.setPrev(c);
-			// 		}
-			// 	}
-			// }
+	// Record a meeting at c if the other direction has reached it, c being
+	// g from root
+	private void meet(int c, int g) {
+		long o = other.label(c);
+		if((o >>> 32) != other.generation) {
+			return;
+		}
+		long candidate = pack(g + (int) o, c);
+		long b = best.get();
+		while((candidate < b) && !best.compareAndSet(b, candidate)) {
+			b = best.get();
+		}
+	}
 
-			for(DijkstraContents d : neighbours) {
-				if(!(removedList[d.getX()][d.getY()])) {
-					alt = c.getKey() + 1;
-					if(alt < d.getKey()) {
-						q.decreaseKey(d, alt);
-						d.setPrev(c);
+	// Expand the cell with the smallest key. Returns false if there's none
+	public boolean step() {
+		if(openSet.isEmpty()) {
+			top = Integer.MAX_VALUE;
+			return false;
+		}
+		int c = openSet.extractMinimum();
+		if(l != null) {
+			if(threads) {
+				synchronized(l) {
+					l.onSelect(c);
+				}
+			} else {
+				l.onSelect(c);
+			}
+		}
+		int g = (int) labels[c] + 1;
+		int numNeighbours = Algorithms.generateNeighbours(neighbours, c, cells, stride);
+		for(int k=0; k<numNeighbours; k++) {
+			int n = neighbours[k];
+			// The keys are consistent, so closed cells never need reopening
+			if(openSet.wasRemoved(n)) {
+				continue;
+			}
+			if(!openSet.wasAdded(n)) {
+				cameFrom[n] = c;
+				setLabel(n, g);
+				openSet.add(n, heapKey(n, g));
+				pushes++;
+				peakOpen = Math.max(peakOpen, openSet.size());
+				if(l != null) {
+					if(threads) {
+						synchronized(l) {
+							l.onOpen(n);
+						}
+					} else {
+						l.onOpen(n);
 					}
 				}
+				meet(n, g);
+			} else if(g < (int) labels[n]) {
+				cameFrom[n] = c;
+				setLabel(n, g);
+				openSet.decreaseKey(n, heapKey(n, g));
+				decreaseKeys++;
+				meet(n, g);
 			}
-			iterations++;
 		}
+		expansions++;
+		top = openSet.isEmpty() ? Integer.MAX_VALUE : (openSet.findMinumumKey() / ties);
+		return true;
+	}
 
-		stats.stopClock();
-		stats.success = false;
-		stats.iterations = iterations;
-		stats.pathLength = -1;
+	// True once no path shorter than the best meeting can be found
+	public boolean canStop() {
+		long mu = best.get() >>> 32;
+		return ((long) top + other.top) >= (2 * mu);
+	}
 
-		g.setFinalise(false);
-		return -1;
+	// Expand cells until the search is done. Does nothing if cancelOrJoin()
+	// was called first
+	public void run() {
+		if(!claimed.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			while(!done.get()) {
+				if(!step() || canStop()) {
+					done.set(true);
+				}
+			}
+		} finally {
+			finished.countDown();
+		}
 	}
 
-	/* END OF DIJKSTRA'S ALGORITHM */
+	// Make sure run() is over, or never starts, so the workspace can be reused
+	public void cancelOrJoin() {
+		if(claimed.compareAndSet(false, true)) {
+			return;
+		}
+		boolean interrupted = false;
+		while(true) {
+			try {
+				finished.await();
+				break;
+			} catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
+
+// Reads and writes Grids as text files
+class GridIO {
+
+	// Load a grid from a text file with one line per row and one character
+	// per cell: '.' or '0' for EMPTY, '#', '@' or '1' for OBSTACLE. Blank
+	// lines are ignored. Files ending in .map are read with loadMap().
+	// Throws IOException if the file can't be read, rows differ in length
+	// or a cell is any other character
+	public static Grid load(String filename) throws java.io.IOException {
+		if(filename.endsWith(".map")) {
+			return loadMap(filename);
+		}
+		ArrayList<String> rows = new ArrayList<String>();
+		ArrayList<Integer> lineNumbers = new ArrayList<Integer>(); // Of each row, for errors
+		ArrayList<Integer> indents = new ArrayList<Integer>(); // Spaces before each row
+		int lineNumber = 0;
+		for(String line : java.nio.file.Files.readAllLines(java.nio.file.Paths.get(filename))) {
+			lineNumber++;
+			String row = line.trim();
+			if(row.length() > 0) {
+				rows.add(row);
+				lineNumbers.add(lineNumber);
+				indents.add(line.indexOf(row));
+			}
+		}
+		if(rows.size() == 0) {
+			throw new java.io.IOException(filename+": empty grid");
+		}
+		int x = rows.get(0).length();
+		int y = rows.size();
+		Grid g = new Grid(x, y);
+		for(int i=0; i<y; i++) {
+			String row = rows.get(i);
+			if(row.length() != x) {
+				throw new java.io.IOException(filename+": row "+Integer.toString(i + 1)+" has "+Integer.toString(row.length())+" cells, expected "+Integer.toString(x));
+			}
+			for(int j=0; j<x; j++) {
+				int value = charToValue(row.charAt(j));
+				if(value == -1) {
+					throw new java.io.IOException(filename+":"+Integer.toString(lineNumbers.get(i))+":"+Integer.toString(indents.get(i) + j + 1)+": unexpected '"+row.charAt(j)+"', expected one of . 0 # @ 1");
+				}
+				g.setCellValue(j, i, value);
+			}
+		}
+		return g;
+	}
+
+	// Value of a cell written as c, see load(), or -1 if c isn't a cell
+	private static int charToValue(char c) {
+		switch(c) {
+			case '.':
+			case '0':
+				return 0;
+			case '#':
+			case '@':
+			case '1':
+				return 1;
+			default:
+				return -1;
+		}
+	}
+
+	// Load a grid in the MovingAI benchmark .map format: a header of
+	// "type octile", "height h", "width w" and "map", then h rows of w
+	// characters. '.', 'G' and 'S' are passable and become EMPTY, anything
+	// else ('@', 'O', 'T', 'W') becomes OBSTACLE. Throws IOException if the
+	// file can't be read or doesn't match its header
+	public static Grid loadMap(String filename) throws java.io.IOException {
+		java.util.List<String> lines = java.nio.file.Files.readAllLines(java.nio.file.Paths.get(filename));
+		int x = -1;
+		int y = -1;
+		int row = 0;
+		while(row < lines.size()) {
+			String[] parts = lines.get(row++).trim().split("\\s+");
+			if(parts[0].equals("map")) {
+				break;
+			} else if(parts[0].equals("height") && (parts.length == 2)) {
+				y = parseHeaderInt(filename, parts[1]);
+			} else if(parts[0].equals("width") && (parts.length == 2)) {
+				x = parseHeaderInt(filename, parts[1]);
+			}
+		}
+		if((x <= 0) || (y <= 0)) {
+			throw new java.io.IOException(filename+": missing width, height or map in header");
+		}
+		if(lines.size() - row < y) {
+			throw new java.io.IOException(filename+": expected "+Integer.toString(y)+" rows, found "+Integer.toString(lines.size() - row));
+		}
+		Grid g = new Grid(x, y);
+		for(int i=0; i<y; i++) {
+			String line = lines.get(row + i);
+			if(line.length() < x) {
+				throw new java.io.IOException(filename+": row "+Integer.toString(i + 1)+" has "+Integer.toString(line.length())+" cells, expected "+Integer.toString(x));
+			}
+			for(int j=0; j<x; j++) {
+				char c = line.charAt(j);
+				g.setCellValue(j, i, ((c == '.') || (c == 'G') || (c == 'S')) ? 0 : 1);
+			}
+		}
+		return g;
+	}
+
+	private static int parseHeaderInt(String filename, String s) throws java.io.IOException {
+		try {
+			return Integer.parseInt(s);
+		} catch(NumberFormatException e) {
+			throw new java.io.IOException(filename+": bad number in header: "+s);
+		}
+	}
+
+	// Load a MovingAI .scen file: a "version 1" line, then one scenario per
+	// line of tab separated bucket, map, map width, map height, start x,
+	// start y, goal x, goal y and optimal length. Map names are resolved
+	// relative to the directory of the .scen file. Throws IOException if the
+	// file can't be read or a line is malformed
+	public static ArrayList<Scenario> loadScenarios(String filename) throws java.io.IOException {
+		java.nio.file.Path path = java.nio.file.Paths.get(filename);
+		java.nio.file.Path dir = path.toAbsolutePath().getParent();
+		ArrayList<Scenario> scenarios = new ArrayList<Scenario>();
+		int lineNumber = 0;
+		for(String line : java.nio.file.Files.readAllLines(path)) {
+			lineNumber++;
+			if((line.trim().length() == 0) || line.startsWith("version")) {
+				continue;
+			}
+			String[] parts = line.trim().split("\\t");
+			if(parts.length != 9) {
+				parts = line.trim().split("\\s+"); // Allow spaces, if map names have none
+			}
+			if(parts.length != 9) {
+				throw new java.io.IOException(filename+":"+Integer.toString(lineNumber)+": expected 9 fields: "+line);
+			}
+			try {
+				scenarios.add(new Scenario(Integer.parseInt(parts[0]), dir.resolve(parts[1]).toString(), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), Integer.parseInt(parts[4]), Integer.parseInt(parts[5]), Integer.parseInt(parts[6]), Integer.parseInt(parts[7]), Double.parseDouble(parts[8])));
+			} catch(NumberFormatException e) {
+				throw new java.io.IOException(filename+":"+Integer.toString(lineNumber)+": bad number: "+line);
+			}
+		}
+		return scenarios;
+	}
+}
+
+// One query from a MovingAI .scen file, see GridIO.loadScenarios()
+class Scenario {
+	public int bucket;
+	public String map; // Path of the .map file
+	public int width;
+	public int height;
+	public int startX;
+	public int startY;
+	public int goalX;
+	public int goalY;
+	public double optimalLength;
+
+	public Scenario(int bucket, String map, int width, int height, int startX, int startY, int goalX, int goalY, double optimalLength) {
+		this.bucket = bucket;
+		this.map = map;
+		this.width = width;
+		this.height = height;
+		this.startX = startX;
+		this.startY = startY;
+		this.goalX = goalX;
+		this.goalY = goalY;
+		this.optimalLength = optimalLength;
+	}
+}
+
+// Runs many path queries on one grid without a GUI, printing a line of
+// results per query. Run as:
+//   java Pathfind batch <grid file> <query file> [A*|Dijkstra|BFS|JPS|JPS+|BiA*|BiDijkstra|BiA*-parallel|BiDijkstra-parallel|HPA*|ALT|CH] [csv|json] [-trace <dir>]
+// The grid file is as for GridIO.load(). Each line of the query file is
+// "sx sy gx gy"; blank lines and lines starting with '#' are ignored.
+// JPS+ uses the JumpTable in <grid file>.jump if there is one (see
+// Pathfind.preprocess()), otherwise it makes one before the first query,
+// as HPA* does its ClusterHierarchy. Likewise ALT uses the LandmarkTable in
+// <grid file>.landmarks, and CH the ContractionHierarchy in <grid file>.ch.
+// With -trace, the steps of query n are recorded in <dir>/query-<n>.trace
+// (see TraceWriter), which adds the time taken to write them to the
+// search's time
+class BatchRunner {
+
+	public static void run(String[] args) {
+		String traceDir = null;
+		ArrayList<String> positional = new ArrayList<String>();
+		for(int i=0; i<args.length; i++) {
+			if(args[i].equals("-trace") && (i + 1 < args.length)) {
+				traceDir = args[++i];
+			} else {
+				positional.add(args[i]);
+			}
+		}
+		args = positional.toArray(new String[0]);
+		if((args.length < 3) || (args.length > 5)) {
+			System.err.println("Usage: java Pathfind batch <grid file> <query file> [A*|Dijkstra|BFS|JPS|JPS+|BiA*|BiDijkstra|BiA*-parallel|BiDijkstra-parallel|HPA*|ALT|CH] [csv|json] [-trace <dir>]");
+			System.exit(2);
+		}
+		String engineName = (args.length > 3) ? args[3] : "A*";
+		String format = (args.length > 4) ? args[4] : "csv";
+		PathEngine engine = Algorithms.getEngine(engineName);
+		if(engine == null) {
+			System.err.println("Unknown engine: "+engineName);
+			System.exit(2);
+		}
+		if(!(format.equals("csv") || format.equals("json"))) {
+			System.err.println("Unknown format: "+format);
+			System.exit(2);
+		}
+
+		GridSnapshot s;
+		java.util.List<String> lines;
+		try {
+			s = GridIO.load(args[1]).snapshot();
+			lines = java.nio.file.Files.readAllLines(java.nio.file.Paths.get(args[2]));
+		} catch(java.io.IOException e) {
+			System.err.println("Error reading input: "+e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		if(engineName.equals("JPS+")) {
+			engine = loadEngine(engine, args[1], ".jump", s, new TableLoader<JumpTable>() {
+				JumpTable load(String filename) throws java.io.IOException {
+					return JumpTable.load(filename);
+				}
+				boolean matches(JumpTable table, GridSnapshot s) {
+					return table.matches(s);
+				}
+				PathEngine makeEngine(JumpTable table) {
+					return Algorithms.getJPSPlusEngine(table);
+				}
+			});
+		} else if(engineName.equals("ALT")) {
+			engine = loadEngine(engine, args[1], ".landmarks", s, new TableLoader<LandmarkTable>() {
+				LandmarkTable load(String filename) throws java.io.IOException {
+					return LandmarkTable.load(filename);
+				}
+				boolean matches(LandmarkTable table, GridSnapshot s) {
+					return table.matches(s);
+				}
+				PathEngine makeEngine(LandmarkTable table) {
+					return Algorithms.getALTEngine(table);
+				}
+			});
+		} else if(engineName.equals("CH")) {
+			engine = loadEngine(engine, args[1], ".ch", s, new TableLoader<ContractionHierarchy>() {
+				ContractionHierarchy load(String filename) throws java.io.IOException {
+					return ContractionHierarchy.load(filename);
+				}
+				boolean matches(ContractionHierarchy table, GridSnapshot s) {
+					return table.matches(s);
+				}
+				PathEngine makeEngine(ContractionHierarchy table) {
+					return Algorithms.getCHEngine(table);
+				}
+			});
+		}
+
+		StringBuilder out = new StringBuilder();
+		if(format.equals("csv")) {
+			out.append("query,sx,sy,gx,gy,"+AlgorithmStats.csvHeader()+"\n");
+		}
+		AlgorithmStats stats = new AlgorithmStats(engine.getName());
+
+		int query = 0;
+		int lineNumber = 0;
+		for(String line : lines) {
+			lineNumber++;
+			line = line.trim();
+			if((line.length() == 0) || line.startsWith("#")) {
+				continue;
+			}
+			int[] q = parseQuery(line, s);
+			if(q == null) {
+				fail(out, args[2]+":"+Integer.toString(lineNumber)+": expected 4 coordinates of EMPTY cells inside the grid: "+line);
+			}
+
+			int start = s.index(q[0], q[1]);
+			int end = s.index(q[2], q[3]);
+			if(traceDir == null) {
+				engine.findPath(s, start, end, null, stats);
+			} else {
+				String filename = java.nio.file.Paths.get(traceDir, "query-"+Integer.toString(query)+".trace").toString();
+				try {
+					TraceWriter trace = new TraceWriter(new java.io.FileOutputStream(filename), s, start, end);
+					engine.findPath(s, start, end, new TraceRecorder(trace), stats);
+				} catch(java.io.IOException e) {
+					fail(out, "Error writing "+filename+": "+e.getMessage());
+				} catch(java.io.UncheckedIOException e) {
+					fail(out, "Error writing "+filename+": "+e.getCause().getMessage());
+				}
+			}
 
+			if(format.equals("csv")) {
+				out.append(Integer.toString(query)+","+Integer.toString(q[0])+","+Integer.toString(q[1])+","+Integer.toString(q[2])+","+Integer.toString(q[3])+","+stats.toCSV()+"\n");
+			} else {
+				out.append("{\"query\":"+Integer.toString(query)+",\"sx\":"+Integer.toString(q[0])+",\"sy\":"+Integer.toString(q[1])+",\"gx\":"+Integer.toString(q[2])+",\"gy\":"+Integer.toString(q[3])+","+stats.toJSONFields()+"}\n");
+			}
+			query++;
+			// Flush now and then so huge batches don't build up in memory
+			if(out.length() > 65536) {
+				System.out.print(out);
+				out.setLength(0);
+			}
+		}
+		System.out.print(out);
+		System.out.flush();
+	}
+
+	// Reads a table saved by Pathfind.preprocess() and makes an engine with it
+	private static abstract class TableLoader<T> {
+		abstract T load(String filename) throws java.io.IOException;
+
+		abstract boolean matches(T table, GridSnapshot s);
+
+		abstract PathEngine makeEngine(T table);
+	}
+
+	// Return an engine using the table saved in gridFile+suffix if there is
+	// one and it matches s, otherwise engine, which makes its own. Exits if
+	// the file can't be read
+	private static <T> PathEngine loadEngine(PathEngine engine, String gridFile, String suffix, GridSnapshot s, TableLoader<T> loader) {
+		String filename = gridFile+suffix;
+		if(!new java.io.File(filename).exists()) {
+			return engine;
+		}
+		try {
+			T table = loader.load(filename);
+			if(loader.matches(table, s)) {
+				return loader.makeEngine(table);
+			}
+			System.err.println(filename+" is out of date, so a new one will be made");
+		} catch(java.io.IOException e) {
+			System.err.println("Error reading input: "+e.getMessage());
+			System.exit(1);
+		}
+		return engine;
+	}
+
+	// Print the results in out for the queries run so far, then message, and
+	// exit with an error
+	private static void fail(StringBuilder out, String message) {
+		System.out.print(out);
+		System.out.flush();
+		System.err.println(message);
+		System.exit(1);
+	}
+
+	// Return {sx, sy, gx, gy} from line, or null if it isn't 4 coordinates
+	// of EMPTY cells in s
+	private static int[] parseQuery(String line, GridSnapshot s) {
+		String[] parts = line.split("[\\s,]+");
+		if(parts.length != 4) {
+			return null;
+		}
+		int[] q = new int[4];
+		try {
+			for(int i=0; i<4; i++) {
+				q[i] = Integer.parseInt(parts[i]);
+			}
+		} catch(NumberFormatException e) {
+			return null;
+		}
+		for(int i=0; i<4; i+=2) {
+			if((q[i] < 0) || (q[i] >= s.getWidth()) || (q[i+1] < 0) || (q[i+1] >= s.getHeight()) || (s.getCellValue(q[i], q[i+1]) == 1)) {
+				return null;
+			}
+		}
+		return q;
+	}
 }
 
 
@@ -1982,14 +7346,489 @@ public class Pathfind {
 
 	}
 
+	// Make an x*y maze of walls on every other row, with the gap alternating
+	// between the left and right ends, so the only path winds through every
+	// row. Start is top-left, end is next to it if near, otherwise at the far end
+	private static Grid makeSerpentine(int x, int y, boolean near) {
+		Grid g = new Grid(x, y);
+		for(int i=1; i<y; i+=2) {
+			for(int j=0; j<x; j++) {
+				g.setCellValue(j, i, 1);
+			}
+			g.setCellValue((i % 4 == 1) ? (x - 1) : 0, i, 0);
+		}
+		g.setCellValue(0, 0, 2);
+		if(near) {
+			g.setCellValue(1, 0, 3);
+		} else {
+			g.setCellValue((y % 4 == 1) ? 0 : (x - 1), y - 1, 3);
+		}
+		return g;
+	}
+
+	// Return bytes allocated by this thread while running engine e on s
+	private static long allocatedBytes(com.sun.management.ThreadMXBean bean, PathEngine e, GridSnapshot s, PathResult[] result) {
+		long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		result[0] = e.findPath(s, s.getStart(), s.getEnd(), null, null);
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+	}
+
+	// Check that the searches don't allocate per step: a search which expands
+	// every cell of a maze may only allocate a little more than one which
+	// expands just one cell, since both have the same setup cost. The only
+	// difference allowed is the int[] holding the longer path
+	public static void testAllocation() {
+		int budget = 16 * 1024; // Bytes
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+		GridSnapshot near = makeSerpentine(201, 201, true).snapshot();
+		GridSnapshot far = makeSerpentine(201, 201, false).snapshot();
+		PathResult[] nearResult = new PathResult[1];
+		PathResult[] farResult = new PathResult[1];
+
+		for(String a : new String[] {"A*", "Dijkstra", "BFS"}) {
+			PathEngine e = Algorithms.getEngine(a);
+			// Warm up so class loading and JIT don't count
+			for(int i=0; i<5; i++) {
+				allocatedBytes(bean, e, near, nearResult);
+				allocatedBytes(bean, e, far, farResult);
+			}
+			long nearBytes = allocatedBytes(bean, e, near, nearResult);
+			long farBytes = allocatedBytes(bean, e, far, farResult);
+			long extra = (farBytes - nearBytes) - (4 * (farResult[0].getLength() - nearResult[0].getLength()));
+			System.out.println(a+": "+Integer.toString(farResult[0].getExpansions())+" iterations, "+Long.toString(extra)+" extra bytes");
+			assert(farResult[0].isFound() && (farResult[0].getExpansions() > 20000));
+			assert(extra < budget) : a+" allocates per step";
+		}
+	}
+
+	// Run random adds, decreaseKeys and extractMinimums on q, which must be
+	// empty, checking each minimum against a plain list of what's in it
+	private static void checkHeap(Random r, KeyValueQueue q, String name) {
+		ArrayList<DijkstraContents> in = new ArrayList<DijkstraContents>();
+		for(int t=0; t<100000; t++) {
+			int op = r.nextInt(10);
+			if((op < 4) || in.isEmpty()) {
+				DijkstraContents c = new DijkstraContents(r.nextInt(1000), null, t, 0);
+				q.add(c);
+				in.add(c);
+			} else if(op < 7) {
+				DijkstraContents c = in.get(r.nextInt(in.size()));
+				if(c.getKey() > 0) {
+					q.decreaseKey(c, r.nextInt(c.getKey())); // Keys must go down
+				}
+			} else {
+				int minimum = Integer.MAX_VALUE;
+				for(DijkstraContents c : in) {
+					minimum = Math.min(minimum, c.getKey());
+				}
+				DijkstraContents c = (DijkstraContents) q.extractMinimum();
+				assert(c.getKey() == minimum) : name+" extracted "+Integer.toString(c.getKey())+" instead of "+Integer.toString(minimum)+" at step "+Integer.toString(t);
+				assert(in.remove(c)) : name+" extracted an item twice at step "+Integer.toString(t);
+			}
+			assert(q.isEmpty() == in.isEmpty());
+		}
+		while(!in.isEmpty()) {
+			assert(in.remove((DijkstraContents) q.extractMinimum()));
+		}
+		assert(q.isEmpty());
+	}
+
+	// Check the heaps used by Dijkstra against a plain list, then that
+	// Dijkstra with each finds paths of the same length as BFS on random
+	// grids, where the end often can't be reached
+	public static void testHeaps() {
+		Random r = new Random(6);
+		checkHeap(r, new FibonacciHeap(), "FibonacciHeap");
+		checkHeap(r, new DaryHeap(2), "DaryHeap(2)");
+		checkHeap(r, new DaryHeap(), "DaryHeap");
+		PathEngine bfs = Algorithms.getEngine("BFS");
+		for(int t=0; t<500; t++) {
+			GridSnapshot s = randomGrid(r, 1 + r.nextInt(40), 1 + r.nextInt(40), 0.35).snapshot();
+			int[] query = randomQuery(r, s);
+			if(query == null) {
+				continue;
+			}
+			int length = bfs.findPath(s, query[0], query[1], null, null).getLength();
+			KeyValueQueue[] queues = {new FibonacciHeap(), new DaryHeap(2), new DaryHeap()};
+			for(KeyValueQueue q : queues) {
+				assert(Algorithms.Dijkstra(s, query[0], query[1], null, null, q).getLength() == length) : "Dijkstra with "+q.getClass().getName()+" found a different length on grid "+Integer.toString(t);
+			}
+		}
+		System.out.println("Heaps agree with a list, and Dijkstra with BFS");
+	}
+
+	// Check that every engine, and Dijkstra with all cells queued up front,
+	// finds a path of length 0 when the start is the end
+	public static void testStartIsEnd() {
+		GridSnapshot s = makeSerpentine(21, 21, false).snapshot();
+		int p = s.index(10, 10);
+		for(String a : new String[] {"A*", "Dijkstra", "BFS", "JPS", "JPS+", "BiA*", "BiDijkstra", "BiA*-parallel", "BiDijkstra-parallel", "HPA*", "ALT", "CH"}) {
+			PathResult result = Algorithms.getEngine(a).findPath(s, p, p, null, null);
+			assert(result.isFound() && (result.getLength() == 0)) : a+" found no path from a cell to itself";
+		}
+		PathResult result = Algorithms.Dijkstra(s, p, p, null, null, new FibonacciHeap());
+		assert(result.isFound() && (result.getLength() == 0)) : "Dijkstra found no path from a cell to itself";
+		System.out.println("Every engine finds a path of length 0 from a cell to itself");
+	}
+
+	// Make an x*y grid where each cell is a wall with probability density
+	private static Grid randomGrid(Random r, int x, int y, double density) {
+		Grid g = new Grid(x, y);
+		for(int j=0; j<x; j++) {
+			for(int i=0; i<y; i++) {
+				if(r.nextDouble() < density) {
+					g.setCellValue(j, i, 1);
+				}
+			}
+		}
+		return g;
+	}
+
+	// Return {start, end} for two random cells of s, or null if either is a
+	// wall
+	private static int[] randomQuery(Random r, GridSnapshot s) {
+		int start = s.index(r.nextInt(s.getWidth()), r.nextInt(s.getHeight()));
+		int end = s.index(r.nextInt(s.getWidth()), r.nextInt(s.getHeight()));
+		if((s.getCells()[start] == 1) || (s.getCells()[end] == 1)) {
+			return null;
+		}
+		return new int[] {start, end};
+	}
+
+	// Check that engines all find paths of the same length as engines[0] on
+	// 500 random grids with 35% walls, from minSize to minSize+39 cells a side
+	private static void checkSameLengths(Random r, PathEngine[] engines, int minSize) {
+		for(int t=0; t<500; t++) {
+			GridSnapshot s = randomGrid(r, minSize + r.nextInt(40), minSize + r.nextInt(40), 0.35).snapshot();
+			int[] q = randomQuery(r, s);
+			if(q == null) {
+				continue;
+			}
+			int length = engines[0].findPath(s, q[0], q[1], null, null).getLength();
+			for(int k=1; k<engines.length; k++) {
+				assert(engines[k].findPath(s, q[0], q[1], null, null).getLength() == length) : engines[k].getName()+" found a different length on grid "+Integer.toString(t);
+			}
+		}
+	}
+
+	// Print how many cells each of engines expands crossing an open grid
+	private static void printOpenGridExpansions(PathEngine[] engines) {
+		GridSnapshot open = new Grid(500, 500).snapshot();
+		for(PathEngine e : engines) {
+			PathResult result = e.findPath(open, open.index(0, 0), open.index(499, 499), null, null);
+			System.out.println(e.getName()+": "+Integer.toString(result.getExpansions())+" expansions on an open grid");
+		}
+	}
+
+	// Check that traces of random steps on random grids read back as written,
+	// with cells near the last one and anywhere in the grid, and some long
+	// enough to fill TraceWriter's buffer more than once
+	public static void testTraces() throws java.io.IOException {
+		Random r = new Random(7);
+		for(int t=0; t<200; t++) {
+			GridSnapshot s = randomGrid(r, 1 + r.nextInt(300), 1 + r.nextInt(300), r.nextDouble()).snapshot();
+			int[] query = randomQuery(r, s);
+			if(query == null) {
+				continue;
+			}
+			int limit = s.getCells().length;
+			int[] steps = new int[r.nextInt((t % 10 == 0) ? 100000 : 1000)];
+			int c = query[0];
+			for(int i=0; i<steps.length; i++) {
+				if(r.nextInt(4) == 0) {
+					c = r.nextInt(limit);
+				} else {
+					c = Math.min(limit - 1, Math.max(0, c + (r.nextInt(3) - 1) + ((r.nextInt(3) - 1) * s.getStride())));
+				}
+				steps[i] = StepPublisher.encode(1 + r.nextInt(3), c);
+			}
+			java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+			TraceWriter writer = new TraceWriter(out, s, query[0], query[1]);
+			writer.write(steps);
+			writer.finish();
+			TraceReader reader = new TraceReader(new java.io.ByteArrayInputStream(out.toByteArray()));
+			assert((reader.getStart() == query[0]) && (reader.getEnd() == query[1]));
+			Grid g = reader.makeGrid();
+			for(int y=0; y<s.getHeight(); y++) {
+				for(int x=0; x<s.getWidth(); x++) {
+					int p = s.index(x, y);
+					int expected = (p == query[1]) ? 3 : ((p == query[0]) ? 2 : s.getCells()[p]);
+					assert(g.getCellValue(x, y) == expected) : "Trace changed the grid at "+Integer.toString(x)+","+Integer.toString(y)+" of grid "+Integer.toString(t);
+				}
+			}
+			assert(Arrays.equals(reader.readSteps(), steps)) : "Trace changed the steps of grid "+Integer.toString(t);
+		}
+		System.out.println("Traces read back as written");
+	}
+
+	// Check that JPS and JPS+ find paths of the same length as A* on random
+	// grids, and expand far fewer cells on an open one
+	public static void testJumpPointSearch() {
+		Random r = new Random(1);
+		PathEngine[] engines = {Algorithms.getEngine("A*"), Algorithms.getEngine("JPS"), Algorithms.getEngine("JPS+")};
+		checkSameLengths(r, engines, 2);
+		printOpenGridExpansions(engines);
+	}
+
+	// Check that bidirectional A* and Dijkstra find paths of the same length
+	// as A* on random grids, on one thread and two
+	public static void testBidirectional() {
+		Random r = new Random(2);
+		String[] names = {"A*", "BiA*", "BiDijkstra", "BiA*-parallel", "BiDijkstra-parallel"};
+		PathEngine[] engines = new PathEngine[names.length];
+		for(int k=0; k<names.length; k++) {
+			engines[k] = Algorithms.getEngine(names[k]);
+		}
+		checkSameLengths(r, engines, 1);
+		printOpenGridExpansions(engines);
+	}
+
+	// Check that HPA* finds a path whenever A* does, of a valid path of at
+	// least the same length, and that a hierarchy kept up to date as walls
+	// are added and removed agrees with one made from scratch
+	public static void testHierarchical() {
+		Random r = new Random(3);
+		PathEngine astar = Algorithms.getEngine("A*");
+		for(int t=0; t<300; t++) {
+			int x = 1 + r.nextInt(60);
+			int y = 1 + r.nextInt(60);
+			Grid g = randomGrid(r, x, y, 0.3);
+			ClusterHierarchy attached = ClusterHierarchy.attach(g, 2 + r.nextInt(8));
+			ClusterHierarchy compared = new ClusterHierarchy(g.snapshot(), attached.getSize());
+			for(int q=0; q<10; q++) {
+				// Flip some walls, so the hierarchies have to catch up
+				for(int i=0; i<r.nextInt(5); i++) {
+					int cx = r.nextInt(x);
+					int cy = r.nextInt(y);
+					g.setCellValue(cx, cy, 1 - g.getCellValue(cx, cy));
+				}
+				GridSnapshot s = g.snapshot();
+				int[] query = randomQuery(r, s);
+				if(query == null) {
+					continue;
+				}
+				int length = astar.findPath(s, query[0], query[1], null, null).getLength();
+				PathResult fresh = Algorithms.HPA(s, query[0], query[1], new ClusterHierarchy(s, attached.getSize()), null, null);
+				for(ClusterHierarchy h : new ClusterHierarchy[] {attached, compared}) {
+					PathResult result = Algorithms.HPA(s, query[0], query[1], h, null, null);
+					assert(result.isFound() == (length != -1)) : "HPA* disagrees with A* about a path on grid "+Integer.toString(t);
+					assert(result.getLength() == fresh.getLength()) : "HPA* is out of date on grid "+Integer.toString(t);
+					assert((length == -1) || (result.getLength() >= length));
+					for(int i=1; i<=result.getLength(); i++) {
+						int d = Math.abs(result.getPathIndex(i) - result.getPathIndex(i - 1));
+						assert(((d == 1) || (d == s.getStride())) && (s.getCells()[result.getPathIndex(i)] != 1)) : "HPA* path isn't connected on grid "+Integer.toString(t);
+					}
+				}
+			}
+		}
+		Grid big = randomGrid(r, 1000, 1000, 0.25);
+		big.setCellValue(0, 0, 0);
+		big.setCellValue(999, 999, 0);
+		GridSnapshot s = big.snapshot();
+		PathEngine hpa = Algorithms.getEngine("HPA*");
+		hpa.findPath(s, s.index(0, 0), s.index(999, 999), null, null); // Make the hierarchy
+		for(PathEngine e : new PathEngine[] {astar, hpa}) {
+			PathResult result = e.findPath(s, s.index(0, 0), s.index(999, 999), null, null);
+			System.out.println(e.getName()+": "+Integer.toString(result.getExpansions())+" expansions, length "+Integer.toString(result.getLength())+" on a 1000x1000 grid with 25% walls");
+		}
+	}
+
+	// Check that ALT finds paths of the same length as A* on random grids,
+	// including after a save and load, and expands fewer cells round a wall
+	public static void testLandmarks() throws java.io.IOException {
+		Random r = new Random(4);
+		PathEngine astar = Algorithms.getEngine("A*");
+		for(int t=0; t<300; t++) {
+			GridSnapshot s = randomGrid(r, 1 + r.nextInt(40), 1 + r.nextInt(40), 0.35).snapshot();
+			LandmarkTable table = new LandmarkTable(s, 1 + r.nextInt(8));
+			for(int q=0; q<10; q++) {
+				int[] query = randomQuery(r, s);
+				if(query == null) {
+					continue;
+				}
+				int length = astar.findPath(s, query[0], query[1], null, null).getLength();
+				assert(Algorithms.ALT(s, query[0], query[1], table, null, null).getLength() == length) : "ALT found a different length on grid "+Integer.toString(t);
+			}
+		}
+
+		// A wall down the middle with a gap at the bottom, start and end
+		// either side of it at the top: taxicab distance leads A* to
+		// fill the top half of the grid first
+		Grid walled = new Grid(301, 301);
+		for(int i=0; i<300; i++) {
+			walled.setCellValue(150, i, 1);
+		}
+		walled.setCellValue(140, 0, 2);
+		walled.setCellValue(160, 0, 3);
+		GridSnapshot maze = walled.snapshot();
+		java.io.File file = java.io.File.createTempFile("pathfind", ".landmarks");
+		try {
+			new LandmarkTable(maze, LandmarkTable.DEFAULT_LANDMARKS).save(file.getPath());
+			LandmarkTable loaded = LandmarkTable.load(file.getPath());
+			assert(loaded.matches(maze));
+			assert(!loaded.matches(new Grid(301, 301).snapshot()));
+			PathResult plain = astar.findPath(maze, maze.getStart(), maze.getEnd(), null, null);
+			PathResult alt = Algorithms.ALT(maze, maze.getStart(), maze.getEnd(), loaded, null, null);
+			assert(alt.getLength() == plain.getLength());
+			System.out.println("A*: "+Integer.toString(plain.getExpansions())+" expansions, ALT: "+Integer.toString(alt.getExpansions())+" expansions round a wall");
+			assert(alt.getExpansions() < plain.getExpansions());
+
+			// An engine makes its table in the first search, reporting the time
+			PathEngine engine = Algorithms.getALTEngine(null);
+			AlgorithmStats stats = new AlgorithmStats("ALT");
+			engine.findPath(maze, maze.getStart(), maze.getEnd(), null, stats);
+			assert(stats.preprocessNanos > 0);
+			engine.findPath(maze, maze.getStart(), maze.getEnd(), null, stats);
+			assert(stats.preprocessNanos == 0);
+		} finally {
+			file.delete();
+		}
+	}
+
+	// Check that contraction hierarchies find paths of the same length as
+	// Dijkstra on random grids, including after a save and load, and that
+	// the paths are connected
+	public static void testContraction() throws java.io.IOException {
+		Random r = new Random(5);
+		PathEngine dijkstra = Algorithms.getEngine("Dijkstra");
+		for(int t=0; t<200; t++) {
+			GridSnapshot s = randomGrid(r, 1 + r.nextInt(50), 1 + r.nextInt(50), 0.3).snapshot();
+			ContractionHierarchy h = new ContractionHierarchy(s);
+			for(int q=0; q<20; q++) {
+				int[] query = randomQuery(r, s);
+				if(query == null) {
+					continue;
+				}
+				int length = dijkstra.findPath(s, query[0], query[1], null, null).getLength();
+				PathResult result = Algorithms.CH(s, query[0], query[1], h, null, null);
+				assert(result.getLength() == length) : "CH found a different length on grid "+Integer.toString(t);
+				for(int i=1; i<=result.getLength(); i++) {
+					int d = Math.abs(result.getPathIndex(i) - result.getPathIndex(i - 1));
+					assert(((d == 1) || (d == s.getStride())) && (s.getCells()[result.getPathIndex(i)] != 1)) : "CH path isn't connected on grid "+Integer.toString(t);
+				}
+				assert((length == -1) || (result.getPathIndex(length) == query[1]));
+			}
+		}
+
+		Grid big = randomGrid(r, 500, 500, 0.25);
+		big.setCellValue(0, 0, 0);
+		big.setCellValue(499, 499, 0);
+		GridSnapshot s = big.snapshot();
+		long time = System.nanoTime();
+		ContractionHierarchy h = new ContractionHierarchy(s);
+		System.out.println("Contracted "+Integer.toString(h.countNodes())+" nodes, with "+Integer.toString(h.countEdges())+" up edges, in "+Utilities.displayNanos(System.nanoTime() - time));
+		java.io.File file = java.io.File.createTempFile("pathfind", ".ch");
+		try {
+			h.save(file.getPath());
+			ContractionHierarchy loaded = ContractionHierarchy.load(file.getPath());
+			assert(loaded.matches(s));
+			assert(!loaded.matches(new Grid(500, 500).snapshot()));
+			PathResult plain = dijkstra.findPath(s, s.index(0, 0), s.index(499, 499), null, null);
+			PathResult result = Algorithms.CH(s, s.index(0, 0), s.index(499, 499), loaded, null, null);
+			assert(result.getLength() == plain.getLength());
+			System.out.println("Dijkstra: "+Integer.toString(plain.getExpansions())+" expansions, CH: "+Integer.toString(result.getExpansions())+" expansions on a 500x500 grid with 25% walls");
+		} finally {
+			file.delete();
+		}
+	}
+
+	// Make the tables used to speed up searches on the grid in filename,
+	// and save them next to it: <filename>.jump for JPS+,
+	// <filename>.landmarks for ALT and <filename>.ch for CH
+	public static void preprocess(String filename) throws java.io.IOException {
+		GridSnapshot s = GridIO.load(filename).snapshot();
+		long t = System.nanoTime();
+		JumpTable table = new JumpTable(s);
+		System.out.println("Made jump table in "+Utilities.displayNanos(System.nanoTime() - t));
+		table.save(filename+".jump");
+		System.out.println("Saved "+filename+".jump");
+		t = System.nanoTime();
+		LandmarkTable landmarks = new LandmarkTable(s, LandmarkTable.DEFAULT_LANDMARKS);
+		System.out.println("Made landmark table in "+Utilities.displayNanos(System.nanoTime() - t));
+		landmarks.save(filename+".landmarks");
+		System.out.println("Saved "+filename+".landmarks");
+		t = System.nanoTime();
+		ContractionHierarchy hierarchy = new ContractionHierarchy(s);
+		System.out.println("Made contraction hierarchy of "+Integer.toString(hierarchy.countNodes())+" nodes and "+Integer.toString(hierarchy.countEdges())+" edges in "+Utilities.displayNanos(System.nanoTime() - t));
+		hierarchy.save(filename+".ch");
+		System.out.println("Saved "+filename+".ch");
+	}
+
 	public static void testDemo() {
 		Demo a = new Demo();
 		a.runMenu();
 	}
 
+	// Return the [delay in ms] argument after the file in args, 0 if there
+	// is none, or -1 if it isn't a number of ms
+	private static int parseDelay(String[] args) {
+		if(args.length < 3) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(args[2]);
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
 	public static void main(String args[]) {
+		if((args.length > 0) && args[0].equals("batch")) {
+			BatchRunner.run(args); // Headless, see BatchRunner
+			return;
+		}
+		if((args.length > 0) && args[0].equals("view")) {
+			int delay = parseDelay(args);
+			if((args.length < 2) || (args.length > 3) || (delay < 0)) {
+				System.err.println("Usage: java Pathfind view <grid file> [delay in ms]");
+				System.exit(2);
+			}
+			try {
+				new Demo().view(args[1], delay);
+			} catch(java.io.IOException e) {
+				System.err.println("Error reading input: "+e.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
+		if((args.length > 0) && args[0].equals("preprocess")) {
+			if(args.length != 2) {
+				System.err.println("Usage: java Pathfind preprocess <grid file>");
+				System.exit(2);
+			}
+			try {
+				preprocess(args[1]);
+			} catch(java.io.IOException e) {
+				System.err.println("Error: "+e.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
+		if((args.length > 0) && args[0].equals("replay")) {
+			int delay = parseDelay(args);
+			if((args.length < 2) || (args.length > 3) || (delay < 0)) {
+				System.err.println("Usage: java Pathfind replay <trace file> [delay in ms]");
+				System.exit(2);
+			}
+			try {
+				TracePlayer.open(args[1], delay);
+			} catch(java.io.IOException e) {
+				System.err.println("Error reading trace: "+e.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
 		// testGrid();
 		// testGUI();
+		// testAllocation();
+		// testHeaps();
+		// testStartIsEnd();
+		// try { testTraces(); } catch(java.io.IOException e) { System.err.println(e.getMessage()); }
+		// testJumpPointSearch();
+		// testBidirectional();
+		// testHierarchical();
+		// try { testLandmarks(); } catch(java.io.IOException e) { System.err.println(e.getMessage()); }
+		// try { testContraction(); } catch(java.io.IOException e) { System.err.println(e.getMessage()); }
 		testDemo();
 	}
 }